@@ -0,0 +1,85 @@
+package cs276.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small JMH-style harness: each benchmark is warmed up for a while, then
+ * timed over several fixed-length iterations, and the mean and spread of
+ * the per-operation time are reported. Results are fed into a sink that
+ * is printed at the end, so the JIT cannot discard the measured work.
+ *
+ * Usage: java [-Dbench.warmup=ms] [-Dbench.iterations=N] [-Dbench.time=ms]
+ *             cs276.bench.Bench [name filter]
+ */
+public class Bench {
+
+	/**
+	 * One measured operation. run() does operations() units of work
+	 * (postings encoded, candidates intersected, ...) and returns a value
+	 * derived from the result.
+	 */
+	public interface Case {
+		public String name();
+
+		public int operations();
+
+		public long run();
+	}
+
+	private static long warmupMillis = Long.getLong("bench.warmup", 1000);
+	private static int iterations = Integer.getInteger("bench.iterations", 5);
+	private static long iterationMillis = Long.getLong("bench.time", 500);
+
+	private static long sink = 0;
+
+	public static void main(String[] args) {
+		String filter = (args.length > 0) ? args[0] : "";
+
+		List<Case> cases = new ArrayList<Case>();
+		CodecBench.addCases(cases);
+		IntersectBench.addCases(cases);
+
+		System.out.println(String.format("%-44s %12s %10s", "benchmark", "ns/op", "error"));
+		for (Case c : cases) {
+			if (c.name().contains(filter)) {
+				measure(c);
+			}
+		}
+		System.err.println("sink " + sink);
+	}
+
+	private static void measure(Case c) {
+		/* Warm up until the JIT has settled */
+		long end = System.nanoTime() + warmupMillis * 1000000L;
+		while (System.nanoTime() < end) {
+			sink += c.run();
+		}
+
+		double[] nsPerOp = new double[iterations];
+		for (int i = 0; i < iterations; i++) {
+			long ops = 0;
+			long start = System.nanoTime();
+			long stop = start + iterationMillis * 1000000L;
+			long now;
+			do {
+				sink += c.run();
+				ops += c.operations();
+				now = System.nanoTime();
+			} while (now < stop);
+			nsPerOp[i] = (double) (now - start) / ops;
+		}
+
+		double mean = 0;
+		for (double v : nsPerOp) {
+			mean += v;
+		}
+		mean /= iterations;
+		double var = 0;
+		for (double v : nsPerOp) {
+			var += (v - mean) * (v - mean);
+		}
+		double stdev = (iterations > 1) ? Math.sqrt(var / (iterations - 1)) : 0;
+		System.out.println(String.format("%-44s %12.3f %10.3f", c.name(), mean, stdev));
+	}
+}
@@ -0,0 +1,93 @@
+package cs276.bench;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import cs276.assignments.BlockCodec;
+
+/**
+ * Encode and decode throughput of each BlockCodec over a whole list of
+ * LIST_SIZE postings, per gap distribution. One operation is one posting.
+ */
+public class CodecBench {
+
+	private static final String[] CODECS = { "Basic", "VB", "Gamma", "PFor" };
+	private static final int LIST_SIZE = 1 << 18;
+
+	public static void addCases(List<Bench.Case> cases) {
+		System.out.println(String.format("%-44s %12s", "encoded size", "bits/posting"));
+		for (String distribution : Postings.DISTRIBUTIONS) {
+			int[] docIds = Postings.generate(distribution, LIST_SIZE, 42);
+			for (String name : CODECS) {
+				BlockCodec codec = createCodec(name);
+				byte[] encoded = codec.encodeBlock(docIds, 0, docIds.length, 0);
+				System.out.println(String.format("%-44s %12.2f", name + " " + distribution,
+						8.0 * encoded.length / docIds.length));
+
+				cases.add(new Encode(name + " " + distribution, codec, docIds));
+				cases.add(new Decode(name + " " + distribution, codec, docIds.length, encoded));
+			}
+		}
+		System.out.println();
+	}
+
+	static BlockCodec createCodec(String name) {
+		try {
+			return (BlockCodec) Class.forName("cs276.assignments." + name + "Index")
+					.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class Encode implements Bench.Case {
+		private final String name;
+		private final BlockCodec codec;
+		private final int[] docIds;
+
+		Encode(String name, BlockCodec codec, int[] docIds) {
+			this.name = "encode " + name;
+			this.codec = codec;
+			this.docIds = docIds;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public int operations() {
+			return docIds.length;
+		}
+
+		public long run() {
+			return codec.encodeBlock(docIds, 0, docIds.length, 0).length;
+		}
+	}
+
+	private static class Decode implements Bench.Case {
+		private final String name;
+		private final BlockCodec codec;
+		private final ByteBuffer encoded;
+		private final int[] out;
+
+		Decode(String name, BlockCodec codec, int count, byte[] encoded) {
+			this.name = "decode " + name;
+			this.codec = codec;
+			this.encoded = ByteBuffer.wrap(encoded);
+			this.out = new int[count];
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public int operations() {
+			return out.length;
+		}
+
+		public long run() {
+			codec.decodeBlock(encoded, 0, encoded.capacity(), out.length, 0, out);
+			return out[out.length - 1];
+		}
+	}
+}
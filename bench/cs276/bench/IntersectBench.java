@@ -0,0 +1,118 @@
+package cs276.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cs276.assignments.BaseIndex;
+import cs276.assignments.Lexicon;
+import cs276.assignments.PForIndex;
+import cs276.assignments.PostingList;
+import cs276.assignments.RoaringIndex;
+import cs276.assignments.Segment;
+import cs276.assignments.SkipIndex;
+import cs276.util.IntList;
+import cs276.util.Metrics;
+import cs276.util.Pair;
+import cs276.util.TermDictionary;
+
+/**
+ * Segment.and, the intersection QueryEngine runs for a plain AND, on a
+ * short posting list against a long one, for several length ratios and
+ * for each layout of the posting lists. Each layout is written as a
+ * one-segment index in a temporary directory, so the lookup, the choice
+ * of strategy and the decoding are the ones of a real query. One
+ * operation is one posting of the short list.
+ */
+public class IntersectBench {
+
+	private static final int LONG_SIZE = 1 << 20;
+	private static final int[] RATIOS = { 1, 16, 256, 4096 };
+	private static final String[] TERMS = { "long", "short" };
+
+	public static void addCases(List<Bench.Case> cases) {
+		int[] longList = Postings.generate("uniform", LONG_SIZE, 7);
+		for (int ratio : RATIOS) {
+			int[] shortList = Postings.sample(longList, LONG_SIZE / ratio, ratio);
+			String suffix = " 1:" + ratio;
+			cases.add(new Intersect("intersect PFor" + suffix, shortList.length,
+					open(new PForIndex(), 0, longList, shortList)));
+			cases.add(new Intersect("intersect PFor+skips" + suffix, shortList.length,
+					open(new SkipIndex(new PForIndex()), Lexicon.FLAG_SKIPS, longList, shortList)));
+			cases.add(new Intersect("intersect PFor+bitmaps" + suffix, shortList.length,
+					open(new RoaringIndex(new PForIndex()), Lexicon.FLAG_ROARING, longList,
+							shortList)));
+		}
+	}
+
+	/*
+	 * Writes the two lists with index as the terms "long" and "short" of
+	 * a segment described by flags, and opens it the way QueryEngine does
+	 * */
+	private static Segment open(BaseIndex index, int flags, int[] longList, int[] shortList) {
+		try {
+			File dir = File.createTempFile("bench", "");
+			dir.delete();
+			dir.mkdir();
+			dir.deleteOnExit();
+			File indexFile = Segment.indexFile(dir, Segment.BASE);
+			File lexiconFile = Segment.lexiconFile(dir, Segment.BASE);
+			indexFile.deleteOnExit();
+			lexiconFile.deleteOnExit();
+
+			TermDictionary termDict = new TermDictionary();
+			Map<Integer, Pair<Long, Integer>> postingDict = new TreeMap<Integer, Pair<Long, Integer>>();
+			RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+			try {
+				FileChannel fc = raf.getChannel();
+				int[][] lists = { longList, shortList };
+				for (int termId = 0; termId < lists.length; termId++) {
+					termDict.add(TERMS[termId], termId);
+					postingDict.put(termId, new Pair<Long, Integer>(fc.position(),
+							lists[termId].length));
+					index.writePosting(fc, new PostingList(termId,
+							new IntList(lists[termId], lists[termId].length)));
+				}
+			} finally {
+				raf.close();
+			}
+			Lexicon.write(lexiconFile, termDict, postingDict, null, null,
+					new TreeMap<String, Integer>(), null, "PFor", flags);
+			return new Segment(new PForIndex(), dir, Segment.BASE, 0, true, null, new Metrics());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class Intersect implements Bench.Case {
+		private final String name;
+		private final int operations;
+		private final Segment segment;
+
+		Intersect(String name, int operations, Segment segment) {
+			this.name = name;
+			this.operations = operations;
+			this.segment = segment;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public int operations() {
+			return operations;
+		}
+
+		public long run() {
+			try {
+				return segment.and(TERMS).size();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package cs276.bench;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Synthetic sorted docId lists drawn from a few gap distributions.
+ */
+public class Postings {
+
+	public static final String[] DISTRIBUTIONS = { "uniform", "zipf", "clustered" };
+
+	/**
+	 * Returns count strictly increasing docIds starting above 0.
+	 *
+	 * @param distribution  "uniform": gaps uniform in [1, 15];
+	 *                      "zipf": gaps Zipf(1.1) distributed over [1, 65536];
+	 *                      "clustered": runs of gaps in [1, 3] between jumps
+	 *                      of 1000 to 10000
+	 */
+	public static int[] generate(String distribution, int count, long seed) {
+		Random random = new Random(seed);
+		double[] zipfCdf = distribution.equals("zipf") ? zipfCdf(65536, 1.1) : null;
+
+		int[] docIds = new int[count];
+		int prev = 0;
+		int runLeft = 0;
+		for (int i = 0; i < count; i++) {
+			int gap;
+			if (distribution.equals("uniform")) {
+				gap = 1 + random.nextInt(15);
+			} else if (distribution.equals("zipf")) {
+				gap = 1 + search(zipfCdf, random.nextDouble());
+			} else if (distribution.equals("clustered")) {
+				if (runLeft == 0) {
+					runLeft = 16 + random.nextInt(240);
+					gap = 1000 + random.nextInt(9000);
+				} else {
+					runLeft--;
+					gap = 1 + random.nextInt(3);
+				}
+			} else {
+				throw new IllegalArgumentException("Unknown distribution " + distribution);
+			}
+			prev += gap;
+			docIds[i] = prev;
+		}
+		return docIds;
+	}
+
+	/**
+	 * Returns count docIds of which about half are taken from list and the
+	 * rest are drawn uniformly over its range, sorted and distinct.
+	 */
+	public static int[] sample(int[] list, int count, long seed) {
+		Random random = new Random(seed);
+		int max = list[list.length - 1];
+		TreeSet<Integer> docIds = new TreeSet<Integer>();
+		while (docIds.size() < count) {
+			if (random.nextBoolean()) {
+				docIds.add(list[random.nextInt(list.length)]);
+			} else {
+				docIds.add(1 + random.nextInt(max));
+			}
+		}
+		int[] out = new int[count];
+		int i = 0;
+		for (int docId : docIds) {
+			out[i++] = docId;
+		}
+		return out;
+	}
+
+	private static double[] zipfCdf(int n, double s) {
+		double[] cdf = new double[n];
+		double sum = 0;
+		for (int k = 1; k <= n; k++) {
+			sum += 1 / Math.pow(k, s);
+			cdf[k - 1] = sum;
+		}
+		for (int k = 0; k < n; k++) {
+			cdf[k] /= sum;
+		}
+		return cdf;
+	}
+
+	/* First index whose cumulative probability is >= p */
+	private static int search(double[] cdf, double p) {
+		int lo = 0;
+		int hi = cdf.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cdf[mid] < p) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
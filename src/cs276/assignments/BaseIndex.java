@@ -1,10 +1,26 @@
 package cs276.assignments;
 
-import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 public interface BaseIndex {
 	
-	public PostingList readPosting (FileChannel fc);
+	public PostingList readPosting (ReadableByteChannel fc);
+
+	/*
+	 * Decodes the posting list starting at the position of buf, in place,
+	 * and leaves buf positioned just past it.
+	 */
+	public PostingList readPosting (ByteBuffer buf);
+
+	/*
+	 * Opens a cursor on the posting list starting at the position of buf
+	 * and leaves buf positioned just past it, like readPosting. The cursor
+	 * decodes lazily through absolute reads of buf, holding a bounded
+	 * amount of state whatever the length of the list.
+	 */
+	public PostingCursor openCursor (ByteBuffer buf);
 	
-	public void writePosting (FileChannel fc, PostingList p);
+	public void writePosting (WritableByteChannel fc, PostingList p);
 }
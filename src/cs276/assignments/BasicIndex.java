@@ -1,15 +1,16 @@
 package cs276.assignments;
 
-import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.ByteBuffer;
-import java.util.List;
-import java.util.ArrayList;
 import java.io.IOException;
 
-public class BasicIndex implements BaseIndex {
+import cs276.util.IntList;
+
+public class BasicIndex implements BaseIndex, BlockCodec {
 
     @Override
-    public PostingList readPosting(FileChannel fc) {
+    public PostingList readPosting(ReadableByteChannel fc) {
         /*
           Assumes fc has been advanced to an appropriate offset into
           the file representing the beginning of a list. Given how
@@ -31,8 +32,6 @@ public class BasicIndex implements BaseIndex {
           int termId = bb.getInt();
           int docFreq = bb.getInt();
 
-          ArrayList<Integer> list = new ArrayList<Integer>();
-
           ByteBuffer docBuffer = ByteBuffer.allocate(4 * docFreq);
           bytesRead = fc.read(docBuffer);
           if (bytesRead == -1) {
@@ -40,11 +39,10 @@ public class BasicIndex implements BaseIndex {
             return null;
           }
           docBuffer.rewind();
-          for (int i = 0; i < docFreq; i++) {
-            list.add(docBuffer.getInt());
-          }
+          int[] list = new int[docFreq];
+          docBuffer.asIntBuffer().get(list);
 
-          return new PostingList(termId, list);
+          return new PostingList(termId, new IntList(list, docFreq));
         }
         catch (IOException e) {
           // TODO Remove before submitting
@@ -54,7 +52,23 @@ public class BasicIndex implements BaseIndex {
     }
 
     @Override
-    public void writePosting(FileChannel fc, PostingList p) {
+    public PostingList readPosting(ByteBuffer buf) {
+        /*
+          Same layout as above, decoded straight out of buf
+          without an intermediate copy.
+        */
+        int termId = buf.getInt();
+        int docFreq = buf.getInt();
+
+        int[] list = new int[docFreq];
+        buf.asIntBuffer().get(list);
+        buf.position(buf.position() + 4 * docFreq);
+
+        return new PostingList(termId, new IntList(list, docFreq));
+    }
+
+    @Override
+    public void writePosting(WritableByteChannel fc, PostingList p) {
         /*
           Assumes we've recorded the offset into the stream;
           writes the termID followed by each integer in the
@@ -64,24 +78,113 @@ public class BasicIndex implements BaseIndex {
         */
         try {
           int termId = p.getTermId();
-          List<Integer> docList = p.getList();
+          IntList docList = p.getList();
+          int docFreq = docList.size();
 
-          ByteBuffer bb = ByteBuffer.allocate(8 + 4 * docList.size());
+          ByteBuffer bb = ByteBuffer.allocate(8 + 4 * docFreq);
 
           bb.putInt(termId);
-          bb.putInt(docList.size());
-
-          for (Integer docId: docList) {
-            bb.putInt(docId);
-          }
+          bb.putInt(docFreq);
+          bb.asIntBuffer().put(docList.array(), 0, docFreq);
+          bb.position(8 + 4 * docFreq);
 
           bb.flip();
 
           while (bb.hasRemaining()) {
-              int numWritten = fc.write(bb);
+              fc.write(bb);
           }
 
         }
         catch (IOException e) {}
     }
+
+    @Override
+    public byte[] encodeBlock(int[] docIds, int from, int to, int base) {
+        /* docIds are stored as they are, so base is not needed */
+        ByteBuffer bb = ByteBuffer.allocate(4 * (to - from));
+        bb.asIntBuffer().put(docIds, from, to - from);
+        return bb.array();
+    }
+
+    @Override
+    public void decodeBlock(ByteBuffer buf, int offset, int numBytes, int count, int base, int[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = buf.getInt(offset + 4 * i);
+        }
+    }
+
+    @Override
+    public PostingCursor openCursor(ByteBuffer buf) {
+        /*
+          Fixed-width docIds, so the cursor can binary search
+          straight to a target instead of walking to it.
+        */
+        int start = buf.position();
+        int docFreq = buf.getInt(start + 4);
+        buf.position(start + 8 + 4 * docFreq);
+        return new BasicCursor(buf, start);
+    }
+
+    private static class BasicCursor implements PostingCursor {
+        private final ByteBuffer buf;
+        private final int termId;
+        private final int docFreq;
+        private final int base;
+        private int index = -1;
+        private int doc = -1;
+
+        BasicCursor(ByteBuffer buf, int offset) {
+            this.buf = buf;
+            this.termId = buf.getInt(offset);
+            this.docFreq = buf.getInt(offset + 4);
+            this.base = offset + 8;
+        }
+
+        private int get(int i) {
+            return buf.getInt(base + 4 * i);
+        }
+
+        @Override
+        public int termId() {
+            return termId;
+        }
+
+        @Override
+        public int docId() {
+            return doc;
+        }
+
+        @Override
+        public int next() {
+            if (index + 1 >= docFreq) {
+                index = docFreq;
+                return doc = NO_MORE_DOCS;
+            }
+            return doc = get(++index);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            int lo = index + 1;
+            int hi = docFreq;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (get(mid) < target) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            index = lo;
+            return doc = (lo < docFreq) ? get(lo) : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int cost() {
+            return docFreq;
+        }
+    }
 }
@@ -0,0 +1,23 @@
+package cs276.assignments;
+
+import java.nio.ByteBuffer;
+
+/*
+ * A codec whose posting body can be cut into independently encoded blocks
+ * of docIds. Each block is gap coded against a base docId, so decoding
+ * can start at any block once the last docId of the block before it is
+ * known. A whole list is the single block with base 0.
+ */
+public interface BlockCodec {
+
+	/*
+	 * Encodes docIds[from, to) as gaps, the first one taken from base.
+	 */
+	public byte[] encodeBlock (int[] docIds, int from, int to, int base);
+
+	/*
+	 * Decodes count docIds from the numBytes at offset in buf, which
+	 * were encoded against base, into out[0, count).
+	 */
+	public void decodeBlock (ByteBuffer buf, int offset, int numBytes, int count, int base, int[] out);
+}
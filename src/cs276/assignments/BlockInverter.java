@@ -0,0 +1,299 @@
+package cs276.assignments;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import cs276.util.ByteTokenizer;
+import cs276.util.IntList;
+import cs276.util.TermDictionary;
+
+/**
+ * Inverts one batch of documents against a batch-local vocabulary so that
+ * several batches can be tokenized at once. Local term ids are handed out in
+ * order of first occurrence, which is exactly the order a serial pass over
+ * the batch would have assigned global ids in; Index remaps them batch by
+ * batch to keep the final term ids independent of thread scheduling.
+ *
+ * Files are tokenized as raw bytes by a ByteTokenizer and looked up in a
+ * TermDictionary by those bytes, so no String is made while inverting.
+ *
+ * Optionally the position of every occurrence is kept as well, counting
+ * tokens from 0 at the start of each document, and the number of
+ * occurrences of each term in each document. Every document's length in
+ * tokens is always counted.
+ */
+public class BlockInverter implements Callable<BlockInverter> {
+
+	// Bytes read from a file at a time
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+	// Decodes terms as FileReader decoded whole lines
+	private static final Charset CHARSET = Charset.defaultCharset();
+	/* Rough JVM costs: an IntList object plus its int[] header */
+	private static final long LIST_OVERHEAD = 16 + 8 + 16;
+
+	private final File[] files;
+	private final int firstDocId;
+	private final boolean withPositions;
+	private final boolean withFrequencies;
+
+	// Local term -> local term id, which is also its entry number
+	private TermDictionary terms = new TermDictionary();
+	// Local term id -> last docId added to its postings
+	private int[] lastDocIds = new int[1 << 10];
+	// Local ids of terms with bytes outside ASCII
+	private IntList nonAsciiIds = new IntList();
+	// Local term id -> sorted docIds
+	private List<IntList> postings = new ArrayList<IntList>();
+	// Local term id -> positions in each of its docs, or null
+	private List<Positions> positions;
+	// Local term id -> occurrences in each of its docs, or null
+	private List<IntList> frequencies;
+	// Tokens of each document of the batch
+	private final int[] docLengths;
+
+	// Tokens read, bytes read and time taken by call()
+	private long tokenCount;
+	private long byteCount;
+	private long nanos;
+	// Heap held by the inverted batch once call() returns
+	private long estimatedBytes;
+
+	/**
+	 * @param files          documents of the batch, in docId order
+	 * @param firstDocId     docId of files[0]; the rest follow consecutively
+	 * @param withPositions  whether to keep the positions of every term
+	 * @param withFrequencies  whether to count the occurrences of every term
+	 */
+	public BlockInverter(File[] files, int firstDocId, boolean withPositions,
+			boolean withFrequencies) {
+		this.files = files;
+		this.firstDocId = firstDocId;
+		this.withPositions = withPositions;
+		this.withFrequencies = withFrequencies;
+		this.positions = withPositions ? new ArrayList<Positions>() : null;
+		this.frequencies = withFrequencies ? new ArrayList<IntList>() : null;
+		this.docLengths = new int[files.length];
+	}
+
+	@Override
+	public BlockInverter call() throws IOException {
+		long start = System.nanoTime();
+		ByteTokenizer tokenizer = new ByteTokenizer(READ_BUFFER_SIZE);
+		for (int i = 0; i < files.length; i++) {
+			int docId = firstDocId + i;
+			byteCount += files[i].length();
+			FileInputStream in = new FileInputStream(files[i]);
+			try {
+				tokenizer.reset(in.getChannel());
+				int position = 0;
+				for (; tokenizer.next(); position++) {
+					int localId = localId(tokenizer);
+					if (lastDocIds[localId] != docId) {
+						lastDocIds[localId] = docId;
+						postings.get(localId).add(docId);
+						if (withPositions) {
+							positions.get(localId).startDoc();
+						}
+						if (withFrequencies) {
+							frequencies.get(localId).add(0);
+						}
+					}
+					if (withPositions) {
+						positions.get(localId).add(position);
+					}
+					if (withFrequencies) {
+						IntList tfs = frequencies.get(localId);
+						tfs.set(tfs.size() - 1, tfs.last() + 1);
+					}
+				}
+				docLengths[i] = position;
+				tokenCount += position;
+			} finally {
+				in.close();
+			}
+		}
+		canonicalize();
+
+		/* Only the terms and their postings are needed from here on */
+		nonAsciiIds = null;
+		lastDocIds = null;
+		estimatedBytes = measure();
+		nanos = System.nanoTime() - start;
+		return this;
+	}
+
+	/* Heap held by the vocabulary and the lists of every term */
+	private long measure() {
+		long bytes = terms.estimatedBytes() + 4L * docLengths.length;
+		for (int id = 0; id < postings.size(); id++) {
+			bytes += LIST_OVERHEAD + 4L * postings.get(id).array().length;
+			if (withPositions) {
+				bytes += 2 * LIST_OVERHEAD + positions.get(id).estimatedBytes();
+			}
+			if (withFrequencies) {
+				bytes += LIST_OVERHEAD + 4L * frequencies.get(id).array().length;
+			}
+		}
+		return bytes;
+	}
+
+	/*
+	 * Returns the local id of the current token, adding it to the
+	 * vocabulary if it is new
+	 * */
+	private int localId(ByteTokenizer tokenizer) {
+		byte[] term = tokenizer.term();
+		int length = tokenizer.length();
+		int id = terms.size();
+		int localId = terms.add(term, 0, length, tokenizer.hash(), id);
+		if (localId != id) {
+			return localId;
+		}
+
+		if (id == lastDocIds.length) {
+			lastDocIds = Arrays.copyOf(lastDocIds, 2 * lastDocIds.length);
+		}
+		for (int i = 0; i < length; i++) {
+			if (term[i] < 0) {
+				nonAsciiIds.add(id);
+				break;
+			}
+		}
+		postings.add(new IntList(4));
+		if (withPositions) {
+			positions.add(new Positions());
+		}
+		if (withFrequencies) {
+			frequencies.add(new IntList(4));
+		}
+		return id;
+	}
+
+	/*
+	 * Terms are read as raw bytes, but were always decoded with the
+	 * default charset before, and Index keys terms by the UTF-8 bytes of
+	 * the decoded String. ASCII reads the same either way; the others are
+	 * re-encoded, and distinct byte sequences that decode to the same
+	 * String, such as two malformed ones, are folded into the first, as
+	 * they were when whole lines were decoded before splitting.
+	 * */
+	private void canonicalize() {
+		if (nonAsciiIds.isEmpty()) {
+			return;
+		}
+		boolean[] nonAscii = new boolean[terms.size()];
+		for (int i = 0; i < nonAsciiIds.size(); i++) {
+			nonAscii[nonAsciiIds.get(i)] = true;
+		}
+
+		TermDictionary canonical = new TermDictionary(terms.size());
+		List<IntList> canonicalPostings = new ArrayList<IntList>(terms.size());
+		List<Positions> canonicalPositions = withPositions
+				? new ArrayList<Positions>(terms.size())
+				: null;
+		List<IntList> canonicalFrequencies = withFrequencies
+				? new ArrayList<IntList>(terms.size())
+				: null;
+		for (int id = 0; id < terms.size(); id++) {
+			int canonicalId;
+			if (nonAscii[id]) {
+				String term = new String(terms.termBytes(id), CHARSET);
+				canonicalId = canonical.add(term, canonical.size());
+			} else {
+				canonicalId = canonical.add(terms, id, canonical.size());
+			}
+			if (canonicalId == canonicalPostings.size()) {
+				canonicalPostings.add(postings.get(id));
+				if (withPositions) {
+					canonicalPositions.add(positions.get(id));
+				}
+				if (withFrequencies) {
+					canonicalFrequencies.add(frequencies.get(id));
+				}
+			} else {
+				IntList docIds = canonicalPostings.get(canonicalId);
+				if (withPositions) {
+					canonicalPositions.set(canonicalId, Positions.union(docIds,
+							canonicalPositions.get(canonicalId), postings.get(id), positions.get(id)));
+				}
+				if (withFrequencies) {
+					canonicalFrequencies.set(canonicalId, Frequencies.union(docIds,
+							canonicalFrequencies.get(canonicalId), postings.get(id), frequencies.get(id)));
+				}
+				canonicalPostings.set(canonicalId, IntList.union(docIds, postings.get(id)));
+			}
+		}
+		terms = canonical;
+		postings = canonicalPostings;
+		positions = canonicalPositions;
+		frequencies = canonicalFrequencies;
+	}
+
+	/**
+	 * Returns the terms of the batch as UTF-8, with their local ids as
+	 * both entry numbers and values.
+	 */
+	public TermDictionary getTerms() {
+		return terms;
+	}
+
+	public int getTermCount() {
+		return terms.size();
+	}
+
+	public IntList getPostings(int localId) {
+		return postings.get(localId);
+	}
+
+	/**
+	 * Returns the positions of localId in each document of its postings,
+	 * or null if positions are not kept.
+	 */
+	public Positions getPositions(int localId) {
+		return withPositions ? positions.get(localId) : null;
+	}
+
+	/**
+	 * Returns the occurrences of localId in each document of its postings,
+	 * or null if they are not counted.
+	 */
+	public IntList getFrequencies(int localId) {
+		return withFrequencies ? frequencies.get(localId) : null;
+	}
+
+	/**
+	 * Returns the number of tokens of the i-th document of the batch.
+	 */
+	public int getDocLength(int i) {
+		return docLengths[i];
+	}
+
+	public int getDocCount() {
+		return files.length;
+	}
+
+	public long getTokenCount() {
+		return tokenCount;
+	}
+
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * Returns the estimated heap held by the inverted batch.
+	 */
+	public long estimatedBytes() {
+		return estimatedBytes;
+	}
+}
@@ -0,0 +1,51 @@
+package cs276.assignments;
+
+/**
+ * Okapi BM25 with the usual k1 = 1.2 and b = 0.75. Index stores the best
+ * score of every term in each segment with these constants, so they are
+ * fixed rather than tuned per query.
+ */
+public class Bm25 {
+
+	public static final double K1 = 1.2;
+	public static final double B = 0.75;
+	// Headroom for rounding when a best score is rescaled into a bound
+	private static final double BOUND_SLACK = 1 + 1e-6;
+
+	/**
+	 * Returns the idf of a term in docFreq of docCount documents, which
+	 * is always positive.
+	 */
+	public static double idf(long docFreq, long docCount) {
+		return Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+	}
+
+	/**
+	 * Returns the average length of docCount documents of totalLength
+	 * tokens together, taken as at least 1.
+	 */
+	public static double avgDocLength(long totalLength, long docCount) {
+		return Math.max(1, (double) totalLength / Math.max(1, docCount));
+	}
+
+	/**
+	 * Returns the score of a term of the given idf that occurs tf times in
+	 * a document of docLength tokens.
+	 */
+	public static double score(double idf, int tf, int docLength, double avgDocLength) {
+		double norm = K1 * (1 - B + B * docLength / avgDocLength);
+		return idf * tf * (K1 + 1) / (tf + norm);
+	}
+
+	/**
+	 * Turns the best score of a term under the statistics of one segment
+	 * into a bound on its score under those of the whole index. The idf
+	 * just scales; a shorter average length only lowers scores, and a
+	 * longer one raises them by at most the ratio of the averages.
+	 */
+	public static double bound(double maxScore, double segmentIdf, double segmentAvgDocLength,
+			double idf, double avgDocLength) {
+		double shrink = Math.min(1, segmentAvgDocLength / avgDocLength);
+		return maxScore * (idf / segmentIdf) / shrink * BOUND_SLACK;
+	}
+}
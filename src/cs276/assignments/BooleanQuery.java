@@ -0,0 +1,401 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import cs276.util.IntList;
+
+/**
+ * A parsed boolean query. The grammar, loosest binding first:
+ *
+ *   query   := and ( "OR" and )*
+ *   and     := unary ( ["AND"] unary )*
+ *   unary   := "NOT" unary | "(" query ")" | phrase | term
+ *   phrase  := '"' term+ '"'
+ *
+ * so adjacent terms are ANDed as they always were, and a plain line of
+ * terms means what it did before. Operators are only recognized in upper
+ * case. Parentheses may stand alone or be attached to the start or end of
+ * a term, as in "(a OR b) c"; a term can therefore neither start with "("
+ * nor end with ")". Quotes are attached the same way, as in "new york",
+ * and match documents holding their terms next to each other in order,
+ * which needs an index built with positions.
+ *
+ * A query is planned and opened per segment as a tree of cursors and
+ * evaluated document at a time: ANDs leapfrog from their rarest operand,
+ * ORs merge their operands through a heap, and NOTs are skipped past with
+ * advance() on the excluded lists.
+ */
+public class BooleanQuery {
+
+	private final Node root;
+
+	private BooleanQuery(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Parses one query line. Throws IllegalArgumentException if the line
+	 * is not a well-formed query. An empty line looks up the empty term,
+	 * as a line of one term always has.
+	 */
+	public static BooleanQuery parse(String line) {
+		List<String> tokens = tokenize(line);
+		if (tokens.isEmpty()) {
+			return new BooleanQuery(new Term(""));
+		}
+		Parser parser = new Parser(tokens);
+		Node root = parser.parseOr();
+		if (parser.pos < tokens.size()) {
+			throw new IllegalArgumentException("Unexpected \"" + tokens.get(parser.pos)
+					+ "\" in query: " + line);
+		}
+		return new BooleanQuery(root);
+	}
+
+	/**
+	 * Returns the terms of the query if it is a plain AND of terms, which
+	 * Segment.and answers directly, or null.
+	 */
+	public String[] getConjunction() {
+		if (root instanceof Term) {
+			return new String[] { ((Term) root).term };
+		}
+		if (!(root instanceof And)) {
+			return null;
+		}
+		List<Node> operands = ((And) root).operands;
+		String[] terms = new String[operands.size()];
+		for (int i = 0; i < terms.length; i++) {
+			if (!(operands.get(i) instanceof Term)) {
+				return null;
+			}
+			terms[i] = ((Term) operands.get(i)).term;
+		}
+		return terms;
+	}
+
+	/**
+	 * Plans the query against segment and opens its cursor, or returns
+	 * null if nothing in the segment can match.
+	 */
+	public PostingCursor open(Segment segment) throws IOException {
+		return root.open(segment);
+	}
+
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+
+	/*
+	 * Splits on whitespace and peels parentheses off the ends of tokens.
+	 * The words of a phrase come out as one token, a quote followed by
+	 * the words separated by spaces.
+	 * */
+	private static List<String> tokenize(String line) {
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder phrase = null;
+		for (String token : line.trim().split("\\s+")) {
+			int start = 0;
+			int end = token.length();
+			while (start < end && token.charAt(start) == '(') {
+				tokens.add("(");
+				start++;
+			}
+			int closing = 0;
+			while (end > start && token.charAt(end - 1) == ')') {
+				closing++;
+				end--;
+			}
+			if (end > start) {
+				String core = token.substring(start, end);
+				boolean opens = phrase == null && core.charAt(0) == '"';
+				if (opens) {
+					phrase = new StringBuilder("\"");
+					core = core.substring(1);
+				}
+				if (phrase != null) {
+					boolean closes = core.endsWith("\"");
+					if (closes) {
+						core = core.substring(0, core.length() - 1);
+					}
+					if (core.length() > 0) {
+						phrase.append((phrase.length() > 1) ? " " : "").append(core);
+					}
+					if (closes) {
+						if (phrase.length() == 1) {
+							throw new IllegalArgumentException("Empty phrase in query");
+						}
+						tokens.add(phrase.toString());
+						phrase = null;
+					}
+				} else {
+					tokens.add(core);
+				}
+			}
+			for (int i = 0; i < closing; i++) {
+				tokens.add(")");
+			}
+		}
+		if (phrase != null) {
+			throw new IllegalArgumentException("Missing closing quote in query");
+		}
+		return tokens;
+	}
+
+	/*
+	 * Recursive descent over the tokens, flattening nested ANDs and ORs
+	 * into one node each
+	 * */
+	private static class Parser {
+		private final List<String> tokens;
+		private int pos = 0;
+
+		Parser(List<String> tokens) {
+			this.tokens = tokens;
+		}
+
+		Node parseOr() {
+			List<Node> operands = new ArrayList<Node>();
+			addOperand(operands, parseAnd(), Or.class);
+			while (accept("OR")) {
+				addOperand(operands, parseAnd(), Or.class);
+			}
+			return (operands.size() == 1) ? operands.get(0) : new Or(operands);
+		}
+
+		Node parseAnd() {
+			List<Node> operands = new ArrayList<Node>();
+			addOperand(operands, parseUnary(), And.class);
+			while (pos < tokens.size() && !peek("OR") && !peek(")")) {
+				accept("AND");
+				addOperand(operands, parseUnary(), And.class);
+			}
+			return (operands.size() == 1) ? operands.get(0) : new And(operands);
+		}
+
+		Node parseUnary() {
+			if (pos == tokens.size()) {
+				throw new IllegalArgumentException("Query ends where a term was expected");
+			}
+			if (accept("NOT")) {
+				return new Not(parseUnary());
+			}
+			if (accept("(")) {
+				Node node = parseOr();
+				if (!accept(")")) {
+					throw new IllegalArgumentException("Missing \")\" in query");
+				}
+				return node;
+			}
+			String token = tokens.get(pos);
+			if (token.equals(")") || token.equals("AND") || token.equals("OR")) {
+				throw new IllegalArgumentException("Unexpected \"" + token + "\" in query");
+			}
+			pos++;
+			if (token.startsWith("\"")) {
+				return new Phrase(token.substring(1).split(" "));
+			}
+			return new Term(token);
+		}
+
+		private boolean peek(String token) {
+			return pos < tokens.size() && tokens.get(pos).equals(token);
+		}
+
+		private boolean accept(String token) {
+			if (peek(token)) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private static void addOperand(List<Node> operands, Node node, Class<?> type) {
+			if (type == And.class && node instanceof And) {
+				operands.addAll(((And) node).operands);
+			} else if (type == Or.class && node instanceof Or) {
+				operands.addAll(((Or) node).operands);
+			} else {
+				operands.add(node);
+			}
+		}
+	}
+
+	/* Orders cursors from the cheapest, the shortest list, up */
+	private static final Comparator<PostingCursor> BY_COST = new Comparator<PostingCursor>() {
+		@Override
+		public int compare(PostingCursor a, PostingCursor b) {
+			return (a.cost() < b.cost()) ? -1 : ((a.cost() == b.cost()) ? 0 : 1);
+		}
+	};
+
+	private static abstract class Node {
+		/* Opens the cursor of this node, or returns null for no match */
+		abstract PostingCursor open(Segment segment) throws IOException;
+	}
+
+	private static class Term extends Node {
+		private final String term;
+
+		Term(String term) {
+			this.term = term;
+		}
+
+		@Override
+		PostingCursor open(Segment segment) throws IOException {
+			return segment.cursor(segment.getLexicon().getTermId(term));
+		}
+
+		@Override
+		public String toString() {
+			return term;
+		}
+	}
+
+	/*
+	 * Terms next to each other in order. The segment intersects their
+	 * docIds first and reads positions only for the documents holding all
+	 * of them.
+	 * */
+	private static class Phrase extends Node {
+		private final String[] terms;
+
+		Phrase(String[] terms) {
+			this.terms = terms;
+		}
+
+		@Override
+		PostingCursor open(Segment segment) throws IOException {
+			if (terms.length == 1) {
+				return new Term(terms[0]).open(segment);
+			}
+			IntList docIds = segment.phrase(terms);
+			return docIds.isEmpty() ? null : new ListCursor(-1, docIds);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("\"");
+			for (int i = 0; i < terms.length; i++) {
+				sb.append((i > 0) ? " " : "").append(terms[i]);
+			}
+			return sb.append('"').toString();
+		}
+	}
+
+	/*
+	 * Operands that are NOTs are pulled out as exclusions: the AND of the
+	 * rest, or every document if there is no rest, minus the OR of them.
+	 * */
+	private static class And extends Node {
+		private final List<Node> operands;
+
+		And(List<Node> operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		PostingCursor open(Segment segment) throws IOException {
+			List<PostingCursor> included = new ArrayList<PostingCursor>();
+			List<PostingCursor> excluded = new ArrayList<PostingCursor>();
+			for (Node operand : operands) {
+				if (operand instanceof Not) {
+					PostingCursor cursor = ((Not) operand).operand.open(segment);
+					if (cursor != null) {
+						excluded.add(cursor);
+					}
+					continue;
+				}
+				PostingCursor cursor = operand.open(segment);
+				if (cursor == null) {
+					/* One operand matching nothing empties the AND */
+					return null;
+				}
+				included.add(cursor);
+			}
+
+			PostingCursor cursor;
+			if (included.isEmpty()) {
+				cursor = segment.allDocs();
+			} else if (included.size() == 1) {
+				cursor = included.get(0);
+			} else {
+				Collections.sort(included, BY_COST);
+				cursor = new ConjunctionCursor(included);
+			}
+			if (excluded.isEmpty()) {
+				return cursor;
+			}
+			return new ExclusionCursor(cursor,
+					(excluded.size() == 1) ? excluded.get(0) : new DisjunctionCursor(excluded));
+		}
+
+		@Override
+		public String toString() {
+			return join(operands, " AND ");
+		}
+	}
+
+	private static class Or extends Node {
+		private final List<Node> operands;
+
+		Or(List<Node> operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		PostingCursor open(Segment segment) throws IOException {
+			List<PostingCursor> cursors = new ArrayList<PostingCursor>();
+			for (Node operand : operands) {
+				PostingCursor cursor = operand.open(segment);
+				if (cursor != null) {
+					cursors.add(cursor);
+				}
+			}
+			if (cursors.isEmpty()) {
+				return null;
+			}
+			return (cursors.size() == 1) ? cursors.get(0) : new DisjunctionCursor(cursors);
+		}
+
+		@Override
+		public String toString() {
+			return join(operands, " OR ");
+		}
+	}
+
+	/* A NOT on its own, outside an AND, excludes from every document */
+	private static class Not extends Node {
+		private final Node operand;
+
+		Not(Node operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		PostingCursor open(Segment segment) throws IOException {
+			return new And(Collections.<Node>singletonList(this)).open(segment);
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + operand;
+		}
+	}
+
+	private static String join(List<Node> operands, String operator) {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < operands.size(); i++) {
+			if (i > 0) {
+				sb.append(operator);
+			}
+			sb.append(operands.get(i));
+		}
+		return sb.append(')').toString();
+	}
+}
@@ -0,0 +1,70 @@
+package cs276.assignments;
+
+import java.util.List;
+
+/**
+ * The AND of several cursors, walked document at a time. The first cursor
+ * leads: every docId it lands on is offered to the others in turn, and as
+ * soon as one of them overshoots, the lead advances to where that one
+ * landed. Cursors should be ordered from the shortest list up, so that the
+ * lead proposes as few candidates as possible and the longer lists are
+ * only ever skipped through.
+ */
+public class ConjunctionCursor implements PostingCursor {
+	private final PostingCursor lead;
+	private final PostingCursor[] others;
+	private int doc = -1;
+
+	/**
+	 * @param cursors  at least two fresh cursors, cheapest first
+	 */
+	public ConjunctionCursor(List<PostingCursor> cursors) {
+		this.lead = cursors.get(0);
+		this.others = cursors.subList(1, cursors.size()).toArray(new PostingCursor[cursors.size() - 1]);
+	}
+
+	@Override
+	public int termId() {
+		return -1;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int next() {
+		return doc = align(lead.next());
+	}
+
+	@Override
+	public int advance(int target) {
+		if (doc >= target) {
+			return doc;
+		}
+		return doc = align(lead.advance(target));
+	}
+
+	/* Returns the first docId from target on that every cursor has */
+	private int align(int target) {
+		outer:
+		while (target != NO_MORE_DOCS) {
+			for (PostingCursor cursor : others) {
+				int found = cursor.advance(target);
+				if (found != target) {
+					target = lead.advance(found);
+					continue outer;
+				}
+			}
+			return target;
+		}
+		return NO_MORE_DOCS;
+	}
+
+	/* At most as many matches as the shortest list */
+	@Override
+	public int cost() {
+		return lead.cost();
+	}
+}
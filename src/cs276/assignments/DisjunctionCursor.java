@@ -0,0 +1,102 @@
+package cs276.assignments;
+
+import java.util.List;
+
+/**
+ * The OR of several cursors, walked document at a time. The cursors that
+ * are not exhausted sit in a min-heap on their current docId; each step
+ * moves every cursor on the current docId past it and takes the new top,
+ * so a document in several lists comes out once.
+ */
+public class DisjunctionCursor implements PostingCursor {
+	// Cursors on their current posting, the smallest docId at the root
+	private final PostingCursor[] heap;
+	private int size = 0;
+	private final int cost;
+	private int doc = -1;
+
+	/**
+	 * @param cursors  fresh cursors
+	 */
+	public DisjunctionCursor(List<PostingCursor> cursors) {
+		this.heap = new PostingCursor[cursors.size()];
+		long total = 0;
+		for (PostingCursor cursor : cursors) {
+			total += cursor.cost();
+			if (cursor.next() != NO_MORE_DOCS) {
+				heap[size++] = cursor;
+			}
+		}
+		this.cost = (int) Math.min(total, Integer.MAX_VALUE);
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	@Override
+	public int termId() {
+		return -1;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int next() {
+		if (doc == -1) {
+			/* The cursors were moved onto their first postings up front */
+			return doc = top();
+		}
+		return advance(doc + 1);
+	}
+
+	@Override
+	public int advance(int target) {
+		if (doc >= target) {
+			return doc;
+		}
+		while (size > 0 && heap[0].docId() < target) {
+			if (heap[0].advance(target) == NO_MORE_DOCS) {
+				heap[0] = heap[--size];
+				heap[size] = null;
+			}
+			siftDown(0);
+		}
+		return doc = top();
+	}
+
+	private int top() {
+		return (size == 0) ? NO_MORE_DOCS : heap[0].docId();
+	}
+
+	private void siftDown(int i) {
+		PostingCursor cursor = heap[i];
+		if (cursor == null) {
+			return;
+		}
+		int docId = cursor.docId();
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && heap[child + 1].docId() < heap[child].docId()) {
+				child++;
+			}
+			if (heap[child].docId() >= docId) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = cursor;
+	}
+
+	/* At most as many matches as all the lists together */
+	@Override
+	public int cost() {
+		return cost;
+	}
+}
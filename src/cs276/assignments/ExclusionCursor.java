@@ -0,0 +1,55 @@
+package cs276.assignments;
+
+/**
+ * The AND-NOT of two cursors: the postings of one that are not in the
+ * other. The excluded cursor is only ever advanced to the candidates of
+ * the included one, so with skip pointers or a bitmap it skips over
+ * everything in between instead of reading it.
+ */
+public class ExclusionCursor implements PostingCursor {
+	private final PostingCursor included;
+	private final PostingCursor excluded;
+	private int doc = -1;
+
+	public ExclusionCursor(PostingCursor included, PostingCursor excluded) {
+		this.included = included;
+		this.excluded = excluded;
+	}
+
+	@Override
+	public int termId() {
+		return included.termId();
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int next() {
+		return doc = skipExcluded(included.next());
+	}
+
+	@Override
+	public int advance(int target) {
+		if (doc >= target) {
+			return doc;
+		}
+		return doc = skipExcluded(included.advance(target));
+	}
+
+	/* Returns the first candidate from candidate on that is not excluded */
+	private int skipExcluded(int candidate) {
+		while (candidate != NO_MORE_DOCS && excluded.advance(candidate) == candidate) {
+			candidate = included.next();
+		}
+		return candidate;
+	}
+
+	/* At most as many matches as the included list */
+	@Override
+	public int cost() {
+		return included.cost();
+	}
+}
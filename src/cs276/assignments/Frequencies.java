@@ -0,0 +1,85 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import cs276.util.IntList;
+
+/**
+ * Reads and writes the term frequencies of a posting list: how many times
+ * the term occurs in each of its documents, in posting list order.
+ *
+ * On disk they are a list of the frequencies file that sits beside every
+ * index file and run, in the same term order. The list holds the running
+ * totals of the frequencies, which strictly increase since every
+ * frequency is at least 1, so the codec of the index writes it as it
+ * writes docIds and its gaps are the frequencies themselves.
+ */
+public class Frequencies {
+
+	/**
+	 * Writes the frequencies of termId to out.
+	 */
+	public static void write(BaseIndex codec, WritableByteChannel out, int termId, IntList tfs)
+			throws IOException {
+		IntList totals = new IntList(tfs.size());
+		int total = 0;
+		for (int i = 0; i < tfs.size(); i++) {
+			total += tfs.get(i);
+			totals.add(total);
+		}
+		codec.writePosting(out, new PostingList(termId, totals));
+	}
+
+	/**
+	 * Reads a list of frequencies from in, which is left just past it.
+	 * Returns null if it cannot be read.
+	 */
+	public static IntList read(BaseIndex codec, ReadableByteChannel in) throws IOException {
+		PostingList totals = codec.readPosting(in);
+		return (totals == null) ? null : fromTotals(totals.getList());
+	}
+
+	/**
+	 * Reads a list of frequencies at the position of buf, leaving buf just
+	 * past it. Returns null if it cannot be read.
+	 */
+	public static IntList read(BaseIndex codec, ByteBuffer buf) {
+		PostingList totals = codec.readPosting(buf);
+		return (totals == null) ? null : fromTotals(totals.getList());
+	}
+
+	/**
+	 * Merges the frequencies of two posting lists as IntList.union merges
+	 * their docIds; a document in both gets the sum of both.
+	 */
+	public static IntList union(IntList aDocs, IntList a, IntList bDocs, IntList b) {
+		IntList merged = new IntList(aDocs.size() + bDocs.size());
+		int i = 0;
+		int j = 0;
+		while (i < aDocs.size() || j < bDocs.size()) {
+			int aDoc = (i < aDocs.size()) ? aDocs.get(i) : Integer.MAX_VALUE;
+			int bDoc = (j < bDocs.size()) ? bDocs.get(j) : Integer.MAX_VALUE;
+			if (aDoc < bDoc) {
+				merged.add(a.get(i++));
+			} else if (bDoc < aDoc) {
+				merged.add(b.get(j++));
+			} else {
+				merged.add(a.get(i++) + b.get(j++));
+			}
+		}
+		return merged;
+	}
+
+	private static IntList fromTotals(IntList totals) {
+		int previous = 0;
+		for (int i = 0; i < totals.size(); i++) {
+			int total = totals.get(i);
+			totals.set(i, total - previous);
+			previous = total;
+		}
+		return totals;
+	}
+}
@@ -1,18 +1,19 @@
 package cs276.assignments;
 
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.List;
+import java.util.Arrays;
 
-public class GammaIndex implements BaseIndex {
+import cs276.util.IntList;
+
+public class GammaIndex implements BaseIndex, BlockCodec {
 
     @Override
-    public PostingList readPosting(FileChannel fc) {
+    public PostingList readPosting(ReadableByteChannel fc) {
         try {
-            // read termId / doc frequency, and bytes needed to decode 
+            // read termId / doc frequency, and bytes needed to decode
             ByteBuffer bb = ByteBuffer.allocate(12);
 
             int bytesRead = fc.read(bb);
@@ -20,46 +21,40 @@ public class GammaIndex implements BaseIndex {
                 System.err.println("Gamma: readPosting read fewer than 8 bytes from fc");
                 return null;
             }
-            bb.rewind();
-
-            int termId = bb.getInt();
-            int docFreq = bb.getInt();
-            int numBytes = bb.getInt();
+            int numBytes = bb.getInt(8);
 
-            // read postings list into fixed byte array
-            ByteBuffer docBuf = ByteBuffer.allocate(numBytes);
-            bytesRead = fc.read(docBuf);
+            // read postings list in behind the header and decode it in place
+            ByteBuffer docBuf = ByteBuffer.allocate(12 + numBytes);
+            bb.flip();
+            docBuf.put(bb);
+            // a list of just docId 1 takes no bytes; reading none could hit the end of fc
+            bytesRead = (numBytes == 0) ? 0 : fc.read(docBuf);
             if (bytesRead == -1) {
-                System.err.println("VB: readPosting read fewer than 8 bytes from fc");
+                System.err.println("Gamma: readPosting read fewer than " + numBytes + " bytes from fc");
                 return null;
             }
-            docBuf.rewind();
-            byte[] input = new byte[numBytes];
-            docBuf.get(input);
+            docBuf.flip();
+            return readPosting(docBuf);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-            BitSet inputBitSet = convertToBitSet(input);
+    @Override
+    public PostingList readPosting(ByteBuffer buf) {
+        try {
+            int termId = buf.getInt();
+            int docFreq = buf.getInt();
+            int numBytes = buf.getInt();
+            int start = buf.position();
 
             // translate postings list
             int[] list = new int[docFreq];
+            decodeBlock(buf, start, numBytes, docFreq, 0, list);
 
-            // tuple of (decodedGap, index);
-            int[] numberEndIndex = new int[2];
-            int nWritten = 0;
-            int startIndex = 0;
-
-            for (int i = docFreq; i > 0; i--) {
-                GammaDecodeInteger(inputBitSet, startIndex, numberEndIndex);
-                list[nWritten++] = numberEndIndex[0];
-                startIndex = numberEndIndex[1];
-            }
-
-            GapDecode(list);
-
-            ArrayList<Integer> finalList = new ArrayList<Integer>(numBytes);
-            for (int i = 0; i < docFreq; i++) {
-                finalList.add(list[i]);
-            }
-            return new PostingList(termId, finalList);
+            buf.position(start + numBytes);
+            return new PostingList(termId, new IntList(list, docFreq));
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -67,61 +62,25 @@ public class GammaIndex implements BaseIndex {
     }
 
     @Override
-    public void writePosting(FileChannel fc, PostingList p) {
+    public void writePosting(WritableByteChannel fc, PostingList p) {
         try {
             int termId = p.getTermId();
-            List<Integer> docList = p.getList();
-            int[] gapList = new int[docList.size()];
-            // convert postings list to int[]
-            for (int i = 0; i < docList.size(); i++) 
-                gapList[i] = docList.get(i);
+            IntList docList = p.getList();
 
-            GapEncodeGamma(gapList);
-
-            ByteBuffer bb = ByteBuffer.allocate(12);
-            BitSet gapOutput = new BitSet();
-            gapOutput.set(0, false);
-
-            int accumBits = 0;
-
-            for (int gap : gapList) {
-                accumBits = GammaEncodeInteger(gap, gapOutput, accumBits);
-            }
-            accumBits -= 1;
-
-            byte[] gapOutputByteBuffer = gapOutput.toByteArray();
-
-            // Handle special case when we're encoding a streak
-            // of 1's, e.g. [X, Y, 1, 1, 1, 1, ...]. These ones
-            // won't show up in the BitSet encoding as they're all
-            // set to 0
-            if (accumBits % 8 != 0) {
-                int numBytesTotal = (accumBits + 8 - 1) / 8;
-                int numBytesNeeded = numBytesTotal - gapOutputByteBuffer.length;
-                if (numBytesNeeded > 0) {
-                    byte[] temp = new byte[numBytesTotal];
-                    byte[] toConcat = new byte[numBytesNeeded];
-                    initializeToZeroes(toConcat);
-                    concatArrays(temp, gapOutputByteBuffer, toConcat);
-                    gapOutputByteBuffer = temp;
-                }
-            }
+            byte[] gapOutputByteBuffer = encodeBlock(docList.array(), 0, docList.size(), 0);
 
             // in case of encoding 1, we have to manually set the all 0's buffer
             int accumBytes = gapOutputByteBuffer.length;
 
-            // Write buffer out
+            // Write header and gaps out in one go
+            ByteBuffer bb = ByteBuffer.allocate(12 + accumBytes);
             bb.putInt(termId);
-            bb.putInt(gapList.length);
+            bb.putInt(docList.size());
             bb.putInt(accumBytes);
+            bb.put(gapOutputByteBuffer, 0, accumBytes);
             bb.flip();
-            fc.write(bb);
-
-            ByteBuffer gapBuf = ByteBuffer.wrap(gapOutputByteBuffer);
-            gapBuf.limit(accumBytes);
-            gapBuf.position(0);
-            while (gapBuf.hasRemaining()) {
-                int numWritten = fc.write(gapBuf);
+            while (bb.hasRemaining()) {
+                fc.write(bb);
             }
 
         } catch (IOException e) {
@@ -129,127 +88,242 @@ public class GammaIndex implements BaseIndex {
         }
     }
 
-    private void initializeToZeroes(byte[] arr) {
-        for (int i = 0; i < arr.length; i++) 
-            arr[i] = 0;
-    }
-
-    private void concatArrays(byte[] out, byte[] a, byte[] b) {
-        System.arraycopy(a, 0, out, 0, a.length);
-        System.arraycopy(b, 0, out, a.length, b.length);
-    }
+    @Override
+    public byte[] encodeBlock(int[] docIds, int from, int to, int base) {
+        // a 31-bit gap takes at most 63 bits, plus one word of slack
+        byte[] out = new byte[8 * (to - from) + 8];
+        int outPos = 0;
+        long word = 0;
+        int wordBits = 0;
+        long totalBits = 0;
+        long lastSetBit = 0;
+        int prev = base;
+
+        for (int i = from; i < to; i++) {
+            int gap = docIds[i] - prev;
+            prev = docIds[i];
+
+            // encoding 0 writes nothing, as it always has
+            if (gap == 0) {
+                continue;
+            }
+            int length = 31 - Integer.numberOfLeadingZeros(gap);
+            long code = gammaCode(gap, length);
+            int codeBits = 2 * length + 1;
 
-    private void GapEncodeGamma(int[] docIdList) {
-        for (int i = docIdList.length - 1; i > 0; i--) {
-            docIdList[i] -= docIdList[i-1];
+            if (code != 0) {
+                lastSetBit = totalBits + 64 - Long.numberOfLeadingZeros(code);
+            }
+            totalBits += codeBits;
+
+            // append to the word, spilling full words little-endian
+            word |= code << wordBits;
+            wordBits += codeBits;
+            if (wordBits >= 64) {
+                putWord(out, outPos, word);
+                outPos += 8;
+                wordBits -= 64;
+                word = (wordBits == 0) ? 0 : code >>> (codeBits - wordBits);
+            }
         }
-    }
-
-    private void GapDecode(int[] gapIdList) {
-        for (int i = 1; i < gapIdList.length; i++) {
-            gapIdList[i] += gapIdList[i-1];
+        putWord(out, outPos, word);
+
+        // The BitSet writer this replaces emitted bytes up to the last set
+        // bit, then padded runs of trailing 0 bits (gaps of 1) out to
+        // ceil((totalBits - 1) / 8) bytes unless that count was a whole
+        // number of bytes. Keep that length so indexes stay byte-identical;
+        // the decoder reads anything past it as 0 bits.
+        int numBytes = (int) ((lastSetBit + 7) / 8);
+        long paddedBits = totalBits - 1;
+        if (paddedBits % 8 != 0) {
+            numBytes = (int) Math.max(numBytes, (paddedBits + 7) / 8);
         }
+        return Arrays.copyOf(out, numBytes);
     }
 
-    private BitSet convertToBitSet(byte[] input) {
-        BitSet bs = new BitSet();
-        for (int i = 0; i < input.length; i++) {
-            byte b = input[i];
-            for (int j = 0; j < 8; j++) {
-                bs.set(8 * i + j, (b & (1 << j)) != 0);
+    @Override
+    public void decodeBlock(ByteBuffer buf, int offset, int numBytes, int count, int base, int[] out) {
+        long[] words = toWords(buf, offset, numBytes);
+        long bitPos = 0;
+        int prev = base;
+
+        for (int i = 0; i < count; i++) {
+            long window = window(words, bitPos);
+
+            // small gaps decode with one table lookup
+            int entry = DECODE_TABLE[(int) window & DECODE_MASK];
+            if (entry != 0) {
+                prev += entry >>> 8;
+                bitPos += entry & 0xff;
+            } else {
+                // length in unary, then length offset bits, high bit first
+                int length = Long.numberOfTrailingZeros(~window);
+                long bits = window >>> (length + 1);
+                int offsetBits = (length == 0) ? 0
+                        : Integer.reverse((int) bits) >>> (32 - length);
+                prev += (1 << length) | offsetBits;
+                bitPos += 2 * length + 1;
             }
+            out[i] = prev;
         }
-        return bs;
     }
 
-    /**
-     * Gamma encodes number.  The encoded bits are placed in BitSet outputGammaCode starting at
-     * (0-based) index position startIndex.  Returns the index position immediately following the
-     * encoded bits.  If you try to gamma encode 0, then the return value should be startIndex (i.e.,
-     * it does nothing).
-     *
-     * @param number            Number to be gamma encoded
-     * @param outputGammaCode   Gamma encoded bits are placed in this BitSet starting at startIndex
-     * @param startIndex        Encoded bits start at this index position in outputGammaCode
-     * @return                  Index position in outputGammaCode immediately following the encoded bits
+    @Override
+    public PostingCursor openCursor(ByteBuffer buf) {
+        int start = buf.position();
+        int numBytes = buf.getInt(start + 8);
+        buf.position(start + 12 + numBytes);
+        return new GammaCursor(buf, start);
+    }
+
+    /*
+     * Decodes one gap per step out of a 64-bit buffer that is topped up a
+     * byte at a time, so it never holds more than a word of the list.
      */
-    private int GammaEncodeInteger(int number, BitSet outputGammaCode, int startIndex) {
-        int nextIndex = startIndex;
-
-        if (number != 0) {
-            // find left-most bit
-            int leftMostOneBit = 31;
-            int mask = 1 << 31;
-            while ((mask & number) == 0) {
-                leftMostOneBit--;
-                mask >>>= 1;
+    private static class GammaCursor implements PostingCursor {
+        private final ByteBuffer buf;
+        private final int termId;
+        private final int docFreq;
+        private final int end;
+        private int pos;
+        private long bits = 0;
+        private int available = 0;
+        private int count = 0;
+        private int doc = -1;
+
+        GammaCursor(ByteBuffer buf, int offset) {
+            this.buf = buf;
+            this.termId = buf.getInt(offset);
+            this.docFreq = buf.getInt(offset + 4);
+            this.pos = offset + 12;
+            this.end = pos + buf.getInt(offset + 8);
+        }
+
+        /* Buffers at least 57 bits, reading 0 bits past the end */
+        private void refill() {
+            while (available <= 56) {
+                long b = (pos < end) ? buf.get(pos) & 0xffL : 0;
+                pos++;
+                bits |= b << available;
+                available += 8;
             }
+        }
 
-            // compose length
-            nextIndex = UnaryEncodeInteger(leftMostOneBit, outputGammaCode, nextIndex);
+        private void consume(int n) {
+            bits >>>= n;
+            available -= n;
+        }
 
-            // compose offset from leftMostBit
-            for (int i = 0; i < leftMostOneBit; i++) {
-                int curBit = leftMostOneBit - 1 - i;
-                outputGammaCode.set(nextIndex + i, ((1 << curBit) & number) != 0);
-            }
+        @Override
+        public int termId() {
+            return termId;
+        }
 
-            // compose length using unary converter
-            nextIndex += (leftMostOneBit);
+        @Override
+        public int docId() {
+            return doc;
         }
-        return nextIndex;
-    }
 
-    /**
-     * Decodes the Gamma encoded number in BitSet inputGammaCode starting at (0-based) index startIndex.
-     * The decoded number is returned in numberEndIndex[0] and the index position immediately following
-     * the encoded value in inputGammaCode is returned in numberEndIndex[1].
-     *
-     * @param inputGammaCode  BitSet containing the gamma code
-     * @param startIndex      Gamma code starts at this index position
-     * @param numberEndIndex  Return values: index 0 holds the decoded number; index 1 holds the index
-     *                        position in inputGammaCode immediately following the gamma code.
-     */
-    private void GammaDecodeInteger(BitSet inputGammaCode, int startIndex, int[] numberEndIndex) {
-        int decodedIndex[] = new int[2];
+        @Override
+        public int next() {
+            if (count >= docFreq) {
+                return doc = NO_MORE_DOCS;
+            }
+            refill();
+            int gap;
+            int entry = DECODE_TABLE[(int) bits & DECODE_MASK];
+            if (entry != 0) {
+                gap = entry >>> 8;
+                consume(entry & 0xff);
+            } else {
+                int length = Long.numberOfTrailingZeros(~bits);
+                consume(length + 1);
+                refill();
+                int offsetBits = (length == 0) ? 0
+                        : Integer.reverse((int) bits) >>> (32 - length);
+                consume(length);
+                gap = (1 << length) | offsetBits;
+            }
+            count++;
+            return doc = Math.max(doc, 0) + gap;
+        }
 
-        // decode length
-        UnaryDecodeInteger(inputGammaCode, startIndex, decodedIndex);
+        @Override
+        public int advance(int target) {
+            while (doc < target) {
+                next();
+            }
+            return doc;
+        }
 
-        int length = decodedIndex[0];
-        int num = 0;
-        int nextIndex = decodedIndex[1];
+        @Override
+        public int cost() {
+            return docFreq;
+        }
+    }
 
-        // decode offset
-        for (int i = 0; i < length; i++)
-            if (inputGammaCode.get(nextIndex + i))
-                num |= (1 << (length - 1 - i));
-        num |= (1 << length);
+    /*
+     * Bits are stored least significant first within each byte, the layout
+     * BitSet.toByteArray() produced. Numbers are gamma coded as length
+     * ones, a zero, then the length bits below the leading one of the
+     * number, highest first.
+     */
 
-        numberEndIndex[0] = num;
-        numberEndIndex[1] = nextIndex + length;
+    // Codes of up to DECODE_BITS bits are decoded by table lookup
+    private static final int DECODE_BITS = 16;
+    private static final int DECODE_MASK = (1 << DECODE_BITS) - 1;
+    // Indexed by the next DECODE_BITS bits: (gap << 8 | code bits) of the
+    // code they start with, or 0 if that code is longer
+    private static final int[] DECODE_TABLE = new int[1 << DECODE_BITS];
+
+    static {
+        for (int length = 0; 2 * length + 1 <= DECODE_BITS; length++) {
+            int codeBits = 2 * length + 1;
+            for (int gap = 1 << length; gap < (2 << length); gap++) {
+                int code = (int) gammaCode(gap, length);
+                for (int rest = 0; rest < (1 << (DECODE_BITS - codeBits)); rest++) {
+                    DECODE_TABLE[code | (rest << codeBits)] = (gap << 8) | codeBits;
+                }
+            }
+        }
     }
 
+    /* Gamma code of gap in stream order, first bit in the lowest bit */
+    private static long gammaCode(int gap, int length) {
+        long unary = (1L << length) - 1;
+        if (length == 0) {
+            return unary;
+        }
+        long offsetBits = Integer.reverse(gap) >>> (32 - length);
+        return unary | (offsetBits << (length + 1));
+    }
 
-    public static int UnaryEncodeInteger(int number, BitSet outputUnaryCode, int startIndex) {
-        int nextIndex = startIndex;
-        for (int i = 0; i < number; i++) {
-            outputUnaryCode.set(nextIndex + i);
+    private static void putWord(byte[] out, int pos, long word) {
+        for (int i = 0; i < 8 && pos + i < out.length; i++) {
+            out[pos + i] = (byte) (word >>> (8 * i));
         }
-        outputUnaryCode.set(nextIndex + number, false);
-        nextIndex += (number + 1);
-        return nextIndex;
     }
 
+    /* Little-endian words of the block, zero-padded with one spare word */
+    private static long[] toWords(ByteBuffer buf, int offset, int numBytes) {
+        long[] words = new long[(numBytes + 7) / 8 + 1];
+        for (int i = 0; i < numBytes; i++) {
+            words[i >>> 3] |= (buf.get(offset + i) & 0xffL) << (8 * (i & 7));
+        }
+        return words;
+    }
 
-    public static void UnaryDecodeInteger(BitSet inputUnaryCode, int startIndex, int[] numberEndIndex) {
-        int num = 0;
-        int index = startIndex;
-        while (inputUnaryCode.get(index)) {
-            num++;
-            index++;
+    /* The 64 bits starting at bitPos, the first of them in the lowest bit */
+    private static long window(long[] words, long bitPos) {
+        int w = (int) (bitPos >>> 6);
+        int shift = (int) (bitPos & 63);
+        if (w >= words.length) {
+            return 0;
+        }
+        long lo = words[w] >>> shift;
+        if (shift == 0 || w + 1 >= words.length) {
+            return lo;
         }
-        numberEndIndex[0] = num;
-        numberEndIndex[1] = index + 1;
+        return lo | (words[w + 1] << (64 - shift));
     }
 }
@@ -1,6 +1,11 @@
 package cs276.assignments;
 
+import cs276.util.BufferedReadChannel;
+import cs276.util.BufferedWriteChannel;
+import cs276.util.IntList;
+import cs276.util.Metrics;
 import cs276.util.Pair;
+import cs276.util.TermDictionary;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -9,23 +14,30 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.LinkedList;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Index {
 
-    // Term id -> (position in index file, doc frequency) dictionary
-    private static Map<Integer, Pair<Long, Integer>> postingDict = new TreeMap<Integer, Pair<Long, Integer>>();
+    // Doc id -> number of tokens, for the docs whose length is known
+    private static IntList docLengths = new IntList();
     // Doc name -> doc id dictionary
     private static Map<String, Integer> docDict = new TreeMap<String, Integer>();
     // Term -> term id dictionary
-    private static Map<String, Integer> termDict = new TreeMap<String, Integer>();
+    private static TermDictionary termDict = new TermDictionary();
     // Block queue
     private static LinkedList<File> blockQueue = new LinkedList<File>();
 
@@ -37,7 +49,828 @@ public class Index {
     private static int wordIdCounter = 1;
     // Index
     private static BaseIndex index = null;
+    // Codec of positions and frequencies, the index without skips or bitmaps
+    private static BaseIndex plainCodec = null;
+    // Heap budget of the in-memory index before a run is flushed
+    private static long memoryBudget = Math.max(1, Long.getLong("index.memory",
+            Runtime.getRuntime().maxMemory() / (1 << 22)) << 20);
+    // Number of document batches inverted concurrently
+    private static int numWorkers = Math.max(1, Integer.getInteger("index.workers",
+            Runtime.getRuntime().availableProcessors()));
+    // Share of memoryBudget the batches being inverted may take
+    private static final double IN_FLIGHT_SHARE = 0.25;
+    // Maximum number of runs merged in one pass
+    private static int mergeFanIn = Math.max(2, Integer.getInteger("index.fanin", 64));
+    // Whether to write skip pointers into the posting lists
+    private static boolean useSkips = Boolean.getBoolean("index.skips");
+    // Whether to store dense posting lists as Roaring bitmaps
+    private static boolean useRoaring = Boolean.getBoolean("index.roaring");
+    // Whether to store the positions of every term in every document
+    private static boolean usePositions = Boolean.getBoolean("index.positions");
+    // Whether to store term frequencies, doc lengths and best BM25 scores
+    private static boolean useScores = Boolean.getBoolean("index.scores");
+    // Read buffer size of each run too large to map during the merge
+    private static int mergeBufferSize = Integer.getInteger("index.mergebuffer", 1 << 18);
+    // Size of each of the two buffers of the run and index writers
+    private static int writeBufferSize = Integer.getInteger("index.writebuffer", 1 << 20);
+    // Whether to add the new blocks of data_dir to the index as a segment
+    private static boolean useAppend = Boolean.getBoolean("index.append");
+    // Number of adjacent segments of one size tier merged into one
+    private static int segmentsPerTier = Math.max(2, Integer.getInteger("index.tier", 4));
+    // Number of segments of about equal size a build splits its new docs into
+    private static int numShards = Math.max(1, Integer.getInteger("index.shards", 1));
+    // Index file size below which every segment is in the lowest tier
+    private static final long TIER_FLOOR_BYTES = 1 << 20;
+    // File to write the JSON metrics report to, or null for none
+    private static String reportFile = System.getProperty("index.report");
+    // Time, bytes and postings of each indexing phase
+    private static Metrics metrics = new Metrics();
+
+
+    /*
+     * Blocked sort-based indexing. Every document is listed and given its doc id up
+     * front, then cut into batches of roughly batchBytes of input that
+     * BlockInverters tokenize on the pool, at most 2 * numWorkers at a
+     * time and no more than fit in IN_FLIGHT_SHARE of memoryBudget.
+     * Batches are folded into termDict and the MemoryIndex strictly in doc
+     * id order, so every id matches a serial build no matter which batch
+     * finishes first. Whenever the MemoryIndex, termDict and the batches
+     * still inverting are estimated to hold more than memoryBudget bytes,
+     * the MemoryIndex is sorted, on sortPool if it is big, and flushed as
+     * a run, whatever the directory layout.
+     * */
+    private static void invertDocuments(File[] dirlist, String output, ExecutorService pool,
+            ExecutorService sortPool) throws IOException {
+        List<File> docs = new ArrayList<File>();
+        int firstDocId = docIdCounter;
+        for (File block : dirlist) {
+            for (File file : block.listFiles()) {
+                ++totalFileCount;
+                String fileName = block.getName() + "/" + file.getName();
+                docDict.put(fileName, docIdCounter++);
+                docs.add(file);
+            }
+        }
+
+        long batchBytes = Math.max(1, memoryBudget / (8 * numWorkers));
+        MemoryIndex memoryIndex = new MemoryIndex(sortPool, numWorkers, usePositions, useScores);
+        LinkedList<Future<BlockInverter>> inverting = new LinkedList<Future<BlockInverter>>();
+        int submitted = 0;
+        int nextDocId = firstDocId;
+        // Input bytes of the batches submitted but not folded in yet, and
+        // the input and heap of the batches folded in so far
+        long inFlightBytes = 0;
+        long foldedBytes = 0;
+        long foldedHeapBytes = 0;
+        // Heap an inverted batch takes per byte of input, once measured
+        double heapPerByte = 0;
+
+        while (submitted < docs.size() || !inverting.isEmpty()) {
+            /* Until a batch has been measured, one batch per worker */
+            while (submitted < docs.size() && (inverting.isEmpty()
+                    || (foldedBytes == 0 ? inverting.size() < numWorkers
+                            : inverting.size() < 2 * numWorkers
+                                    && heapPerByte * inFlightBytes < memoryBudget * IN_FLIGHT_SHARE))) {
+                int start = submitted;
+                long bytes = 0;
+                while (submitted < docs.size() && (submitted == start || bytes < batchBytes)) {
+                    bytes += docs.get(submitted++).length();
+                }
+                inFlightBytes += bytes;
+                File[] batch = docs.subList(start, submitted).toArray(new File[submitted - start]);
+                inverting.add(pool.submit(new BlockInverter(batch, firstDocId + start,
+                        usePositions, useScores)));
+            }
+
+            BlockInverter inverted = await(inverting.removeFirst());
+            metrics.addNanos("invert.tokenize", inverted.getNanos());
+            metrics.add("input.docs", inverted.getDocCount());
+            metrics.add("input.bytes", inverted.getByteCount());
+            metrics.add("input.tokens", inverted.getTokenCount());
+            metrics.add("invert.batch.bytes", inverted.estimatedBytes());
+            inFlightBytes -= inverted.getByteCount();
+            foldedBytes += inverted.getByteCount();
+            foldedHeapBytes += inverted.estimatedBytes();
+            heapPerByte = (double) foldedHeapBytes / Math.max(1, foldedBytes);
+            for (int i = 0; i < inverted.getDocCount(); i++) {
+                setDocLength(nextDocId++, inverted.getDocLength(i));
+            }
+
+            /* Assign global ids to terms new to this batch */
+            long start = System.nanoTime();
+            TermDictionary batchTerms = inverted.getTerms();
+            for (int i = 0; i < inverted.getTermCount(); i++) {
+                int termId = termDict.add(batchTerms, i, wordIdCounter);
+                if (termId == wordIdCounter) {
+                    wordIdCounter++;
+                }
+                memoryIndex.add(termId, inverted.getPostings(i), inverted.getPositions(i),
+                        inverted.getFrequencies(i));
+            }
+            metrics.time("invert.fold", start);
+
+            /* The term dictionary and the batches still inverting share the budget */
+            if (memoryIndex.estimatedBytes() + termDict.estimatedBytes()
+                    + (long) (heapPerByte * inFlightBytes) >= memoryBudget) {
+                flushRun(memoryIndex, output);
+            }
+        }
+
+        if (!memoryIndex.isEmpty()) {
+            flushRun(memoryIndex, output);
+        }
+    }
+
+    /*
+     * Sorts the MemoryIndex and writes it out as the next run, one list
+     * per run of equal term ids in a single scan
+     * */
+    private static void flushRun(MemoryIndex memoryIndex, String output) throws IOException {
+        long start = System.nanoTime();
+        File blockFile = new File(output, "run." + blockQueue.size());
+        if (!blockFile.createNewFile()) {
+            throw new IOException("Create new block failure: " + blockFile);
+        }
+        blockQueue.add(blockFile);
+
+        RandomAccessFile bfc = new RandomAccessFile(blockFile, "rw");
+        BufferedWriteChannel out = new BufferedWriteChannel(bfc.getChannel(), writeBufferSize);
+        RandomAccessFile pfc = usePositions
+                ? new RandomAccessFile(companionFile(blockFile, ".positions"), "rw")
+                : null;
+        BufferedWriteChannel positionsOut = usePositions
+                ? new BufferedWriteChannel(pfc.getChannel(), writeBufferSize)
+                : null;
+        RandomAccessFile tfc = useScores
+                ? new RandomAccessFile(companionFile(blockFile, ".tfs"), "rw")
+                : null;
+        BufferedWriteChannel frequenciesOut = useScores
+                ? new BufferedWriteChannel(tfc.getChannel(), writeBufferSize)
+                : null;
+        try {
+            long[] postings = memoryIndex.sortedPostings();
+            int size = memoryIndex.size();
+            IntList docIds = new IntList();
+            IntList tfs = new IntList();
+            for (int i = 0; i < size; ) {
+                int termId = MemoryIndex.termId(postings[i]);
+                docIds.clear();
+                tfs.clear();
+                Positions positions = usePositions ? new Positions() : null;
+                for (; i < size && MemoryIndex.termId(postings[i]) == termId; i++) {
+                    int docId = memoryIndex.docId(postings[i]);
+                    if (docIds.isEmpty() || docIds.last() != docId) {
+                        docIds.add(docId);
+                        if (usePositions) {
+                            positions.startDoc();
+                        }
+                        if (useScores) {
+                            tfs.add(0);
+                        }
+                    }
+                    if (usePositions) {
+                        memoryIndex.addPositions(postings[i], positions);
+                    }
+                    if (useScores) {
+                        tfs.set(tfs.size() - 1, tfs.last() + memoryIndex.frequency(postings[i]));
+                    }
+                }
+                writePosting(out, new PostingList(termId, docIds), null);
+                if (usePositions) {
+                    positions.write(plainCodec, positionsOut, termId);
+                }
+                if (useScores) {
+                    Frequencies.write(plainCodec, frequenciesOut, termId, tfs);
+                }
+                metrics.add("flush.postings", docIds.size());
+            }
+            metrics.add("flush.bytes", out.position());
+        } finally {
+            out.close();
+            bfc.close();
+            if (usePositions) {
+                positionsOut.close();
+                pfc.close();
+            }
+            if (useScores) {
+                frequenciesOut.close();
+                tfc.close();
+            }
+        }
+        memoryIndex.clear();
+        metrics.time("invert.flush", start);
+    }
+
+    /*
+     * Streams every run at once through a heap keyed on termId and writes
+     * the merged postings to out in a single pass. Runs are consumed in
+     * queue order, which is also docId order, so ties on termId are broken
+     * by run and the lists of a term can usually just be concatenated.
+     * Each run contributes a cursor, so only the merged list of the
+     * current term is ever decoded. Positions and frequencies, if kept,
+     * are merged the same way from the files beside each run into the
+     * ones beside the output, and a final output also takes the best
+     * score of each term. The outputs hold contiguous ranges of docIds,
+     * and each merged list is cut between them, so all the shards of a
+     * build are written in one pass over the runs. Bytes and postings
+     * written are counted under phase.
+     * */
+    private static void mergeRuns(List<File> runs, List<MergeOutput> outs, String phase)
+            throws IOException {
+        PriorityQueue<RunCursor> heap = new PriorityQueue<RunCursor>(Math.max(1, runs.size()));
+        for (int i = 0; i < runs.size(); i++) {
+            advanceOrClose(new RunCursor(runs.get(i), i), heap);
+        }
+        for (MergeOutput out : outs) {
+            out.open();
+        }
+
+        while (!heap.isEmpty()) {
+            RunCursor top = heap.poll();
+            int termId = top.current.termId();
+            IntList docIdList = append(new IntList(top.current.cost()), top.current);
+            Positions positions = usePositions ? top.readPositions() : null;
+            IntList tfs = useScores ? top.readFrequencies() : null;
+            advanceOrClose(top, heap);
+
+            while (!heap.isEmpty() && heap.peek().current.termId() == termId) {
+                RunCursor next = heap.poll();
+                if (usePositions || useScores) {
+                    IntList more = append(new IntList(next.current.cost()), next.current);
+                    Positions morePositions = usePositions ? next.readPositions() : null;
+                    IntList moreTfs = useScores ? next.readFrequencies() : null;
+                    if (more.isEmpty() || docIdList.last() < more.get(0)) {
+                        docIdList.addAll(more);
+                        if (usePositions) {
+                            positions.append(morePositions);
+                        }
+                        if (useScores) {
+                            tfs.addAll(moreTfs);
+                        }
+                    } else {
+                        if (usePositions) {
+                            positions = Positions.union(docIdList, positions, more, morePositions);
+                        }
+                        if (useScores) {
+                            tfs = Frequencies.union(docIdList, tfs, more, moreTfs);
+                        }
+                        docIdList = IntList.union(docIdList, more);
+                    }
+                } else {
+                    docIdList = append(docIdList, next.current);
+                }
+                advanceOrClose(next, heap);
+            }
+
+            for (MergeOutput out : outs) {
+                int from = lowerBound(docIdList, out.fromDocId);
+                int to = lowerBound(docIdList, out.toDocId);
+                if (from == to) {
+                    continue;
+                }
+                if (to - from == docIdList.size()) {
+                    out.write(termId, docIdList, positions, tfs);
+                } else {
+                    out.write(termId, slice(docIdList, from, to),
+                            usePositions ? slice(positions, from, to) : null,
+                            useScores ? slice(tfs, from, to) : null);
+                }
+                metrics.add(phase + ".postings", to - from);
+            }
+        }
+        for (MergeOutput out : outs) {
+            out.close(phase);
+        }
+    }
+
+    /*
+     * Where a merge writes the postings of the docIds in [fromDocId,
+     * toDocId): an index file, the positions and frequencies files beside
+     * it and, for a final merge, the dictionaries of the segment it is
+     * */
+    private static class MergeOutput {
+        final File file;
+        final int fromDocId;
+        final int toDocId;
+        // Doc name -> doc id of the segment, or null for a run
+        final Map<String, Integer> docs;
+        // Term id -> (position in index file, doc frequency) dictionary
+        final Map<Integer, Pair<Long, Integer>> postingDict = new TreeMap<Integer, Pair<Long, Integer>>();
+        // Term id -> position of its record in the positions file
+        final Map<Integer, Long> positionDict = new TreeMap<Integer, Long>();
+        // Term id -> (position of its frequencies, best score) dictionary
+        final Map<Integer, Pair<Long, Float>> scoreDict = new TreeMap<Integer, Pair<Long, Float>>();
+        // Number of documents of the segment and their average length
+        private final int docCount;
+        private final double avgDocLength;
+        private RandomAccessFile mf;
+        private BufferedWriteChannel mfc;
+        private RandomAccessFile pf;
+        private BufferedWriteChannel pfc;
+        private RandomAccessFile tf;
+        private BufferedWriteChannel tfc;
+
+        /* An intermediate run, taking every docId */
+        MergeOutput(File file) {
+            this(file, 0, Integer.MAX_VALUE, null);
+        }
+
+        /* A segment made of docs, whose lengths must be known */
+        MergeOutput(File file, int fromDocId, int toDocId, Map<String, Integer> docs) {
+            this.file = file;
+            this.fromDocId = fromDocId;
+            this.toDocId = toDocId;
+            this.docs = docs;
+            long totalLength = 0;
+            if (docs != null) {
+                for (Integer docId : docs.values()) {
+                    totalLength += docLengths.get(docId);
+                }
+            }
+            this.docCount = (docs == null) ? 0 : docs.size();
+            this.avgDocLength = Bm25.avgDocLength(totalLength, docCount);
+        }
+
+        boolean isFinal() {
+            return docs != null;
+        }
+
+        void open() throws IOException {
+            mf = new RandomAccessFile(file, "rw");
+            mf.setLength(0);
+            mfc = new BufferedWriteChannel(mf.getChannel(), writeBufferSize);
+            if (usePositions) {
+                pf = new RandomAccessFile(companionFile(file, ".positions"), "rw");
+                pf.setLength(0);
+                pfc = new BufferedWriteChannel(pf.getChannel(), writeBufferSize);
+            }
+            if (useScores) {
+                tf = new RandomAccessFile(companionFile(file, ".tfs"), "rw");
+                tf.setLength(0);
+                tfc = new BufferedWriteChannel(tf.getChannel(), writeBufferSize);
+            }
+        }
+
+        void write(int termId, IntList docIds, Positions positions, IntList tfs)
+                throws IOException {
+            writePosting(mfc, new PostingList(termId, docIds), isFinal() ? postingDict : null);
+            if (usePositions) {
+                if (isFinal()) {
+                    positionDict.put(termId, pfc.position());
+                }
+                positions.write(plainCodec, pfc, termId);
+            }
+            if (useScores) {
+                if (isFinal()) {
+                    scoreDict.put(termId, new Pair<Long, Float>(tfc.position(),
+                            maxScore(docIds, tfs)));
+                }
+                Frequencies.write(plainCodec, tfc, termId, tfs);
+            }
+        }
+
+        /*
+         * Returns the best BM25 score of a term over its postings in this
+         * segment, rounded up to a float so it stays a bound
+         * */
+        private float maxScore(IntList docIds, IntList tfs) {
+            double idf = Bm25.idf(docIds.size(), docCount);
+            double best = 0;
+            for (int i = 0; i < docIds.size(); i++) {
+                best = Math.max(best, Bm25.score(idf, tfs.get(i), docLengths.get(docIds.get(i)),
+                        avgDocLength));
+            }
+            float rounded = (float) best;
+            return (rounded < best) ? Math.nextUp(rounded) : rounded;
+        }
+
+        void close(String phase) throws IOException {
+            metrics.add(phase + ".bytes", mfc.position());
+            mfc.close();
+            mf.close();
+            if (usePositions) {
+                metrics.add(phase + ".positions.bytes", pfc.position());
+                pfc.close();
+                pf.close();
+            }
+            if (useScores) {
+                metrics.add(phase + ".tfs.bytes", tfc.position());
+                tfc.close();
+                tf.close();
+            }
+        }
+    }
+
+    /*
+     * The file with extension beside an index file or run, e.g. the
+     * positions of seg.2.index in seg.2.positions and of run.3 in
+     * run.3.positions
+     * */
+    private static File companionFile(File postings, String extension) {
+        String name = postings.getName().replaceFirst("\\.index$", "");
+        return new File(postings.getParentFile(), name + extension);
+    }
+
+    private static void deleteAll(List<File> files) {
+        for (File file : files) {
+            file.delete();
+            companionFile(file, ".positions").delete();
+            companionFile(file, ".tfs").delete();
+        }
+    }
+
+    private static void setDocLength(int docId, int length) {
+        while (docLengths.size() <= docId) {
+            docLengths.add(0);
+        }
+        docLengths.set(docId, length);
+    }
+
+    /* Returns the index of the first value of list not below value */
+    private static int lowerBound(IntList list, int value) {
+        int lo = 0;
+        int hi = list.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (list.get(mid) < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static IntList slice(IntList list, int from, int to) {
+        IntList sliced = new IntList(to - from);
+        for (int i = from; i < to; i++) {
+            sliced.add(list.get(i));
+        }
+        return sliced;
+    }
+
+    private static Positions slice(Positions positions, int from, int to) {
+        Positions sliced = new Positions();
+        for (int k = from; k < to; k++) {
+            sliced.addDoc(positions, k);
+        }
+        return sliced;
+    }
+
+    /*
+     * Cuts the docIds [firstDocId, limit) into up to count contiguous
+     * shards holding about as many tokens each, none of them empty.
+     * Returns the first docId of every shard, then limit.
+     * */
+    private static int[] shardBounds(int firstDocId, int limit, int count) {
+        count = Math.max(1, Math.min(count, limit - firstDocId));
+        long totalLength = 0;
+        for (int docId = firstDocId; docId < limit; docId++) {
+            totalLength += docLengths.get(docId);
+        }
+        int[] bounds = new int[count + 1];
+        bounds[0] = firstDocId;
+        bounds[count] = limit;
+        long length = 0;
+        int docId = firstDocId;
+        for (int s = 1; s < count; s++) {
+            long target = totalLength * s / count;
+            /* Take at least one doc, and leave one for each shard after */
+            while (docId < limit - (count - s) && (docId == bounds[s - 1] || length < target)) {
+                length += docLengths.get(docId++);
+            }
+            bounds[s] = docId;
+        }
+        return bounds;
+    }
+
+    /*
+     * Appends the postings of cursor to docIdList, or unions them in the
+     * rare case that the runs overlap in docIds
+     * */
+    private static IntList append(IntList docIdList, PostingCursor cursor) {
+        docIdList.ensureCapacity(docIdList.size() + cursor.cost());
+        int docId = cursor.next();
+        if (docIdList.isEmpty() || docIdList.last() < docId) {
+            for (; docId != PostingCursor.NO_MORE_DOCS; docId = cursor.next()) {
+                docIdList.add(docId);
+            }
+            return docIdList;
+        }
+
+        IntList other = new IntList(cursor.cost());
+        for (; docId != PostingCursor.NO_MORE_DOCS; docId = cursor.next()) {
+            other.add(docId);
+        }
+        return IntList.union(docIdList, other);
+    }
+
+    private static void advanceOrClose(RunCursor cursor, PriorityQueue<RunCursor> heap)
+            throws IOException {
+        if (cursor.advance()) {
+            heap.add(cursor);
+        } else {
+            cursor.close();
+        }
+    }
+
+    /*
+     * A cursor on the current posting list of one run. Runs that fit in
+     * one mapping are memory-mapped and decoded lazily in place; larger
+     * ones are read a list at a time through their own buffer.
+     * */
+    private static class RunCursor implements Comparable<RunCursor> {
+        private final RandomAccessFile file;
+        private final MappedByteBuffer map;
+        private final BufferedReadChannel channel;
+        private final int ordinal;
+        // Positions and frequencies files of the run, read in step with
+        // it, or null
+        private final RandomAccessFile positionsFile;
+        private final BufferedReadChannel positions;
+        private final RandomAccessFile frequenciesFile;
+        private final BufferedReadChannel frequencies;
+        PostingCursor current;
+
+        RunCursor(File run, int ordinal) throws IOException {
+            this.file = new RandomAccessFile(run, "r");
+            if (usePositions) {
+                this.positionsFile = new RandomAccessFile(companionFile(run, ".positions"), "r");
+                this.positions = new BufferedReadChannel(positionsFile.getChannel(), mergeBufferSize);
+            } else {
+                this.positionsFile = null;
+                this.positions = null;
+            }
+            if (useScores) {
+                this.frequenciesFile = new RandomAccessFile(companionFile(run, ".tfs"), "r");
+                this.frequencies = new BufferedReadChannel(frequenciesFile.getChannel(),
+                        mergeBufferSize);
+            } else {
+                this.frequenciesFile = null;
+                this.frequencies = null;
+            }
+            FileChannel fc = file.getChannel();
+            if (fc.size() <= Integer.MAX_VALUE) {
+                this.map = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+                this.channel = null;
+            } else {
+                this.map = null;
+                this.channel = new BufferedReadChannel(fc, mergeBufferSize);
+            }
+            this.ordinal = ordinal;
+        }
+
+        boolean advance() throws IOException {
+            if (map != null) {
+                if (!map.hasRemaining()) {
+                    return false;
+                }
+                current = index.openCursor(map);
+                return true;
+            }
+
+            if (!channel.hasRemaining()) {
+                return false;
+            }
+            PostingList posting = index.readPosting(channel);
+            if (posting == null) {
+                throw new IOException("Corrupt run file, stopped at " + channel.position());
+            }
+            current = new ListCursor(posting);
+            return true;
+        }
+
+        /* Reads the positions of the current posting list */
+        Positions readPositions() throws IOException {
+            Positions read = Positions.read(plainCodec, positions);
+            if (read == null || read.docCount() != current.cost()) {
+                throw new IOException("Corrupt positions file, stopped at " + positions.position());
+            }
+            return read;
+        }
+
+        /* Reads the frequencies of the current posting list */
+        IntList readFrequencies() throws IOException {
+            IntList read = Frequencies.read(plainCodec, frequencies);
+            if (read == null || read.size() != current.cost()) {
+                throw new IOException("Corrupt frequencies file, stopped at "
+                        + frequencies.position());
+            }
+            return read;
+        }
+
+        void close() throws IOException {
+            file.close();
+            if (positionsFile != null) {
+                positionsFile.close();
+            }
+            if (frequenciesFile != null) {
+                frequenciesFile.close();
+            }
+        }
+
+        @Override
+        public int compareTo(RunCursor other) {
+            if (current.termId() != other.current.termId()) {
+                return current.termId() < other.current.termId() ? -1 : 1;
+            }
+            return ordinal - other.ordinal;
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /*
+     * Reads a doc.dict file into dict and returns one more than the
+     * largest id in it
+     * */
+    private static int readDict(File file, Map<String, Integer> dict) throws IOException {
+        int limit = 1;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                int id = Integer.parseInt(line.substring(tab + 1));
+                dict.put(line.substring(0, tab), id);
+                limit = Math.max(limit, id + 1);
+            }
+        } finally {
+            reader.close();
+        }
+        return limit;
+    }
+
+    /*
+     * Reads a term.dict file into dict and returns one more than the
+     * largest id in it
+     * */
+    private static int readDict(File file, TermDictionary dict) throws IOException {
+        int limit = 1;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                int id = Integer.parseInt(line.substring(tab + 1));
+                dict.add(line.substring(0, tab), id);
+                limit = Math.max(limit, id + 1);
+            }
+        } finally {
+            reader.close();
+        }
+        return limit;
+    }
+
+    /*
+     * posting.dict describes the base segment; every other segment has
+     * its own NAME.posting.dict
+     * */
+    private static File postingDictFile(File outdir, String name) {
+        return new File(outdir, name.equals(Segment.BASE) ? "posting.dict"
+                : name + ".posting.dict");
+    }
+
+    /*
+     * Writes the posting dictionary and the lexicon of segment name from
+     * the dictionaries of the final merge output segment, with only the
+     * terms and documents the segment holds
+     * */
+    private static void writeSegmentDicts(File outdir, String name, MergeOutput segment)
+            throws IOException {
+        Map<Integer, Pair<Long, Integer>> postingDict = segment.postingDict;
+        Map<Integer, Long> positionDict = segment.positionDict;
+        Map<Integer, Pair<Long, Float>> scoreDict = segment.scoreDict;
+        BufferedWriter postWriter = new BufferedWriter(new FileWriter(
+                postingDictFile(outdir, name)));
+        for (Integer termId : postingDict.keySet()) {
+            postWriter.write(termId + "\t" + postingDict.get(termId).getFirst()
+                    + "\t" + postingDict.get(termId).getSecond()
+                    + (usePositions ? "\t" + positionDict.get(termId) : "")
+                    + (useScores ? "\t" + scoreDict.get(termId).getFirst()
+                            + "\t" + scoreDict.get(termId).getSecond() : "") + "\n");
+        }
+        postWriter.close();
 
+        /* Binary lexicon that Query maps instead of parsing the dictionaries above */
+        Lexicon.write(Segment.lexiconFile(outdir, name), termDict, postingDict,
+                usePositions ? positionDict : null, useScores ? scoreDict : null, segment.docs,
+                docLengths, Lexicon.codecName(plainCodec),
+                (useSkips ? Lexicon.FLAG_SKIPS : 0) | (useRoaring ? Lexicon.FLAG_ROARING : 0)
+                        | (usePositions ? Lexicon.FLAG_POSITIONS : 0)
+                        | (useScores ? Lexicon.FLAG_SCORES : 0));
+    }
+
+    private static String nextSegmentName(List<String> segments) {
+        int generation = 0;
+        for (String name : segments) {
+            if (name.startsWith("seg.")) {
+                generation = Math.max(generation, Integer.parseInt(name.substring(4)));
+            }
+        }
+        return "seg." + (generation + 1);
+    }
+
+    private static void deleteSegment(File outdir, String name) {
+        Segment.indexFile(outdir, name).delete();
+        Segment.lexiconFile(outdir, name).delete();
+        Segment.positionsFile(outdir, name).delete();
+        Segment.frequenciesFile(outdir, name).delete();
+        postingDictFile(outdir, name).delete();
+    }
+
+    /*
+     * Tiered merge policy. Segments are put in size tiers growing by a
+     * factor of segmentsPerTier, and whenever segmentsPerTier adjacent
+     * segments share a tier they are merged into one, which usually lands
+     * in the next tier up. Only adjacent segments are merged, so doc ids
+     * stay in segment order, and the number of segments stays logarithmic
+     * in the size of the index. No merge leaves fewer than numShards
+     * segments, so the shards of a build are not merged straight back.
+     * Each merge is published before its inputs are deleted, so a query
+     * that already opened them can finish.
+     * */
+    private static void mergeSegments(File outdir, List<String> segments) throws IOException {
+        int start;
+        while (segments.size() - segmentsPerTier + 1 >= numShards
+                && (start = findMergeableTier(outdir, segments)) >= 0) {
+            List<String> merged = new ArrayList<String>(
+                    segments.subList(start, start + segmentsPerTier));
+            List<File> runs = new ArrayList<File>();
+            Map<String, Integer> docs = new TreeMap<String, Integer>();
+            for (String segment : merged) {
+                runs.add(Segment.indexFile(outdir, segment));
+                Lexicon lexicon = Lexicon.open(Segment.lexiconFile(outdir, segment));
+                for (int docId = lexicon.getFirstDocId(); docId < lexicon.getDocIdLimit(); docId++) {
+                    String docName = lexicon.getDocName(docId);
+                    if (docName != null) {
+                        docs.put(docName, docId);
+                        setDocLength(docId, lexicon.getDocLength(docId));
+                    }
+                }
+            }
+
+            String name = nextSegmentName(segments);
+            MergeOutput out = new MergeOutput(Segment.indexFile(outdir, name), 0,
+                    Integer.MAX_VALUE, docs);
+            /* A failed merge leaves the old segments live, so drop what it wrote */
+            boolean done = false;
+            try {
+                mergeRuns(runs, Collections.singletonList(out), "merge.segments");
+                writeSegmentDicts(outdir, name, out);
+                done = true;
+            } finally {
+                if (!done) {
+                    deleteSegment(outdir, name);
+                }
+            }
+
+            segments.subList(start, start + segmentsPerTier).clear();
+            segments.add(start, name);
+            Segment.writeList(outdir, segments);
+            for (String segment : merged) {
+                deleteSegment(outdir, segment);
+            }
+            metrics.add("merge.segments.count", 1);
+        }
+    }
+
+    /*
+     * Returns the first of segmentsPerTier adjacent segments in the same
+     * tier, or -1 if there are none
+     * */
+    private static int findMergeableTier(File outdir, List<String> segments) {
+        int runStart = 0;
+        int runTier = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            int tier = 0;
+            long size = Segment.indexFile(outdir, segments.get(i)).length() / TIER_FLOOR_BYTES;
+            for (; size >= segmentsPerTier; size /= segmentsPerTier) {
+                tier++;
+            }
+            if (tier != runTier) {
+                runStart = i;
+                runTier = tier;
+            }
+            if (i - runStart + 1 == segmentsPerTier) {
+                return runStart;
+            }
+        }
+        return -1;
+    }
 
     /*
      * Write a posting list to the file
@@ -45,17 +878,18 @@ public class Index {
      * so that you can read it back during retrieval
      *
      * */
-    private static void writePosting(FileChannel fc, PostingList posting, boolean isFinalIteration)
-            throws IOException {
+    private static void writePosting(BufferedWriteChannel fc, PostingList posting,
+            Map<Integer, Pair<Long, Integer>> postingDict) throws IOException {
 
+        /* Tracked by the channel, so this costs no system call */
         long pos = fc.position();
         int termId = posting.getTermId();
 
         /*
             Since we use writePosting for writing intermediate results as well as final index,
-            use this boolean to signal when we're writing to final index
+            the dictionary of the final index is passed only when writing to it
          */
-        if (isFinalIteration) {
+        if (postingDict != null) {
             Pair<Long, Integer> pair;
             if (!postingDict.containsKey(termId)) {
                 pair = new Pair<Long, Integer>(pos, posting.getList().size());
@@ -73,7 +907,7 @@ public class Index {
         /* Parse command line */
         if (args.length != 3) {
             System.err
-                    .println("Usage: java Index [Basic|VB|Gamma] data_dir output_dir");
+                    .println("Usage: java [-Dindex.memory=MB] [-Dindex.workers=N] [-Dindex.fanin=K] [-Dindex.skips=true] [-Dindex.roaring=true] [-Dindex.positions=true] [-Dindex.scores=true] [-Dindex.shards=N] [-Dindex.append=true] [-Dindex.tier=N] [-Dindex.report=file.json] Index [Basic|VB|Gamma|PFor] data_dir output_dir");
             return;
         }
 
@@ -84,9 +918,21 @@ public class Index {
             index = (BaseIndex) indexClass.newInstance();
         } catch (Exception e) {
             System.err
-                    .println("Index method must be \"Basic\", \"VB\", or \"Gamma\"");
+                    .println("Index method must be \"Basic\", \"VB\", \"Gamma\" or \"PFor\"");
             throw new RuntimeException(e);
         }
+        plainCodec = index;
+        if (useSkips) {
+            index = new SkipIndex((BlockCodec) index);
+        }
+        if (useRoaring) {
+            index = new RoaringIndex(index);
+        }
+        metrics.label("codec", args[0]);
+        metrics.label("skips", String.valueOf(useSkips));
+        metrics.label("roaring", String.valueOf(useRoaring));
+        metrics.label("positions", String.valueOf(usePositions));
+        metrics.label("scores", String.valueOf(useScores));
 
         /* Get root directory */
         String root = args[1];
@@ -111,161 +957,126 @@ public class Index {
             }
         }
 
-        /* BSBI indexing algorithm */
-        File[] dirlist = rootdir.listFiles();
-
-        /* For each block */
-        for (File block : dirlist) {
-            File blockFile = new File(output, block.getName());
-            blockQueue.add(blockFile);
-
-            File blockDir = new File(root, block.getName());
-            File[] filelist = blockDir.listFiles();
-
-            /*
-                maintain a mapping of termId -> list of docId's for each block.
-                BSBI specifies storing pairs, but for ease of conversion
-                and representation, we use this mapping structure.
-            */
-            TreeMap<Integer, ArrayList<Integer>>postingLists = new TreeMap<Integer, ArrayList<Integer>>();
-
-            /* For each file */
-            for (File file : filelist) {
-                ++totalFileCount;
-                String fileName = block.getName() + "/" + file.getName();
-
-                int docId = docIdCounter++;
-                docDict.put(fileName, docId);
-
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] tokens = line.trim().split("\\s+");
-                    for (String token : tokens) {
-                        int tokenId;
-                        if (!termDict.containsKey(token)) {
-                            tokenId = wordIdCounter++;
-                            termDict.put(token, tokenId);
-                        } else {
-                            tokenId = termDict.get(token);
-                        }
-
-                        ArrayList<Integer>curList;
-                        if (!postingLists.containsKey(tokenId)) {
-                            curList = new ArrayList<Integer>();
-                            curList.add(docId);
-                            postingLists.put(tokenId, curList);
-                        } else {
-                            curList = postingLists.get(tokenId);
-                            if (curList.get(curList.size() - 1) < docId)
-                                curList.add(docId);
-                        }
-                    }
-                }
-                reader.close();
+        /* Existing segments, whose ids an append must keep */
+        List<String> segments = new ArrayList<String>();
+        if (useAppend && Segment.lexiconFile(outdir, Segment.list(outdir).get(0)).exists()) {
+            segments = Segment.list(outdir);
+            Lexicon newest = Lexicon.open(Segment.lexiconFile(outdir,
+                    segments.get(segments.size() - 1)));
+            if (!newest.getCodec().equals(Lexicon.codecName(plainCodec))) {
+                System.err.println("Append must use the codec the index was built with, "
+                        + newest.getCodec());
+                return;
             }
-
-            /* Sort and output */
-            if (!blockFile.createNewFile()) {
-                System.err.println("Create new block failure.");
+            if (newest.hasSkips() != useSkips || newest.hasBitmaps() != useRoaring
+                    || newest.hasPositions() != usePositions
+                    || newest.hasScores() != useScores) {
+                System.err.println("Append must use the options the index was built with");
                 return;
             }
+            wordIdCounter = readDict(new File(output, "term.dict"), termDict);
+            docIdCounter = readDict(new File(output, "doc.dict"), docDict);
+        }
+        int firstDocId = docIdCounter;
 
-            RandomAccessFile bfc = new RandomAccessFile(blockFile, "rw");
-            Iterator<Map.Entry<Integer, ArrayList<Integer>>> it = postingLists.entrySet().iterator();
-
-            /* TreeMap provides in-order traversal of keys */
-            while (it.hasNext()) {
-                Map.Entry<Integer, ArrayList<Integer>> pair = it.next();
-
-                int termId = pair.getKey();
-                ArrayList<Integer> docIdList = pair.getValue();
-                Collections.sort(docIdList);
-
-                PostingList plist = new PostingList(termId, docIdList);
-                writePosting(bfc.getChannel(), plist, false);
+        /* BSBI indexing algorithm; an append skips the blocks it already has */
+        Set<String> indexedBlocks = new HashSet<String>();
+        for (String doc : docDict.keySet()) {
+            indexedBlocks.add(doc.substring(0, doc.indexOf('/')));
+        }
+        List<File> newBlocks = new ArrayList<File>();
+        for (File block : rootdir.listFiles()) {
+            if (!indexedBlocks.contains(block.getName())) {
+                newBlocks.add(block);
             }
+        }
+        File[] dirlist = newBlocks.toArray(new File[newBlocks.size()]);
 
-            bfc.close();
+        /* Invert documents on a worker pool */
+        ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+        ExecutorService sortPool = (numWorkers > 1) ? Executors.newFixedThreadPool(numWorkers) : null;
+        Metrics.Timer phase = metrics.begin("invert");
+        try {
+            invertDocuments(dirlist, output, pool, sortPool);
+        } finally {
+            pool.shutdown();
+            if (sortPool != null) {
+                sortPool.shutdown();
+            }
         }
+        phase.end();
+        metrics.add("runs", blockQueue.size());
 
         /* Required: output total number of files. */
         System.out.println(totalFileCount);
+        if (totalFileCount == 0 && !segments.isEmpty()) {
+            return;
+        }
 
         /* Merge blocks */
-        while (true) {
-            if (blockQueue.size() <= 1)
-                break;
-
-            File b1 = blockQueue.removeFirst();
-            File b2 = blockQueue.removeFirst();
-
-            File combfile = new File(output, b1.getName() + "+" + b2.getName());
-            if (!combfile.createNewFile()) {
-                System.err.println("Create new block failure.");
-                return;
-            }
-
-            RandomAccessFile bf1 = new RandomAccessFile(b1, "r");
-            RandomAccessFile bf2 = new RandomAccessFile(b2, "r");
-            RandomAccessFile mf = new RandomAccessFile(combfile, "rw");
-
-            long lenbf1 = bf1.length();
-            long lenbf2 = bf2.length();
-
-            boolean isFinalIteration = blockQueue.size() == 0;
-
-            /*
-                Merge lazily loads posting lists from the two inverted blockfiles.
-                It relies on the fact that both blockfiles are sorted by termId,
-                and the list of docIds in each posting list is sorted.
-             */
-            PostingList plist1 = index.readPosting(bf1.getChannel());
-            PostingList plist2 = index.readPosting(bf2.getChannel());
-
-            while((bf1.getFilePointer() != lenbf1) && (bf2.getFilePointer() != lenbf2)) {
-                int termId1 = plist1.getTermId();
-                int termId2 = plist2.getTermId();
-                if (termId1 == termId2) {
-                    ArrayList<Integer> docIdList = new ArrayList<Integer>(plist1.getList());
-                    docIdList.addAll(plist2.getList());
-                    Collections.sort(docIdList);
-                    PostingList mergedList = new PostingList(plist1.getTermId(), docIdList);
-                    writePosting(mf.getChannel(), mergedList, isFinalIteration);
-                    plist1 = index.readPosting(bf1.getChannel());
-                    plist2 = index.readPosting(bf2.getChannel());
-                } else if (termId1 < termId2) {
-                    writePosting(mf.getChannel(), plist1, isFinalIteration);
-                    plist1 = index.readPosting(bf1.getChannel()); // advance fp
-                } else {
-                    writePosting(mf.getChannel(), plist2, isFinalIteration);
-                    plist2 = index.readPosting(bf2.getChannel()); // advance fp
+        phase = metrics.begin("merge.rounds");
+        int round = 0;
+        while (blockQueue.size() > mergeFanIn) {
+            /* Too many runs to hold open at once: merge consecutive groups first */
+            LinkedList<File> nextRound = new LinkedList<File>();
+            int group = 0;
+            while (!blockQueue.isEmpty()) {
+                List<File> runs = new ArrayList<File>();
+                while (!blockQueue.isEmpty() && runs.size() < mergeFanIn) {
+                    runs.add(blockQueue.removeFirst());
                 }
+                if (runs.size() == 1) {
+                    nextRound.add(runs.get(0));
+                    continue;
+                }
+                File combfile = new File(output, "merge." + round + "." + group++);
+                mergeRuns(runs, Collections.singletonList(new MergeOutput(combfile)),
+                        "merge.rounds");
+                deleteAll(runs);
+                nextRound.add(combfile);
             }
+            blockQueue = nextRound;
+            round++;
+        }
+        phase.end();
+        metrics.add("merge.rounds.count", round);
 
-            RandomAccessFile bfFinal = (bf1.getFilePointer() == lenbf1) ? bf2 : bf1;
-            long lenbfFinal = (bfFinal == bf1) ? lenbf1 : lenbf2;
-            while (bfFinal.getFilePointer() != lenbfFinal) {
-                PostingList plist = index.readPosting(bfFinal.getChannel());
-                writePosting(mf.getChannel(), plist, isFinalIteration);
+        /*
+         * Dump constructed index back into file system as new segments,
+         * one per shard of the new docs; each holds a contiguous range of
+         * docIds and is a segment like any other
+         * */
+        int[] bounds = shardBounds(firstDocId, docIdCounter, numShards);
+        List<String> written = new ArrayList<String>();
+        List<MergeOutput> shards = new ArrayList<MergeOutput>();
+        for (int s = 0; s + 1 < bounds.length; s++) {
+            Map<String, Integer> shardDocs = new TreeMap<String, Integer>();
+            for (Map.Entry<String, Integer> doc : docDict.entrySet()) {
+                if (doc.getValue() >= bounds[s] && doc.getValue() < bounds[s + 1]) {
+                    shardDocs.put(doc.getKey(), doc.getValue());
+                }
             }
-
-            bf1.close();
-            bf2.close();
-            mf.close();
-            b1.delete();
-            b2.delete();
-            blockQueue.add(combfile);
+            List<String> taken = new ArrayList<String>(segments);
+            taken.addAll(written);
+            String name = taken.isEmpty() ? Segment.BASE : nextSegmentName(taken);
+            written.add(name);
+            shards.add(new MergeOutput(Segment.indexFile(outdir, name), bounds[s], bounds[s + 1],
+                    shardDocs));
         }
+        phase = metrics.begin("merge.final");
+        mergeRuns(blockQueue, shards, "merge.final");
+        deleteAll(blockQueue);
+        phase.end();
+        metrics.add("shards", written.size());
 
-        /* Dump constructed index back into file system */
-        File indexFile = blockQueue.removeFirst();
-        indexFile.renameTo(new File(output, "corpus.index"));
-
+        phase = metrics.begin("dictionaries");
+        for (int s = 0; s < shards.size(); s++) {
+            writeSegmentDicts(outdir, written.get(s), shards.get(s));
+        }
         BufferedWriter termWriter = new BufferedWriter(new FileWriter(new File(
                 output, "term.dict")));
-        for (String term : termDict.keySet()) {
-            termWriter.write(term + "\t" + termDict.get(term) + "\n");
+        for (int entry : termDict.sortedEntries()) {
+            termWriter.write(termDict.term(entry) + "\t" + termDict.value(entry) + "\n");
         }
         termWriter.close();
 
@@ -275,14 +1086,27 @@ public class Index {
             docWriter.write(doc + "\t" + docDict.get(doc) + "\n");
         }
         docWriter.close();
+        phase.end();
+        metrics.add("terms", termDict.size());
 
-        BufferedWriter postWriter = new BufferedWriter(new FileWriter(new File(
-                output, "posting.dict")));
-        for (Integer termId : postingDict.keySet()) {
-            postWriter.write(termId + "\t" + postingDict.get(termId).getFirst()
-                    + "\t" + postingDict.get(termId).getSecond() + "\n");
+        /* Publish the segments; a full build replaces whatever was there */
+        List<String> replaced = segments.isEmpty() ? Segment.list(outdir) : new ArrayList<String>();
+        replaced.removeAll(written);
+        segments.addAll(written);
+        Segment.writeList(outdir, segments);
+        for (String old : replaced) {
+            deleteSegment(outdir, old);
+        }
+
+        /* Keep the segment count bounded */
+        phase = metrics.begin("merge.segments");
+        mergeSegments(outdir, segments);
+        phase.end();
+        metrics.add("segments", segments.size());
+
+        if (reportFile != null) {
+            metrics.writeReport(new File(reportFile));
         }
-        postWriter.close();
     }
 
 }
@@ -0,0 +1,579 @@
+package cs276.assignments;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+import cs276.util.IntList;
+import cs276.util.Pair;
+import cs276.util.TermDictionary;
+
+/**
+ * Binary, memory-mapped replacement for parsing term.dict, posting.dict and
+ * doc.dict into TreeMaps at query time. The file holds:
+ *
+ *   header       magic, term count, block size, block count, termId limit,
+ *                first docId, docId limit, longest term, term data
+ *                length, flags, codec
+ *   block index  int offset of each term block into the term data
+ *   term data    terms sorted by UTF-8 bytes, front coded in blocks of
+ *                BLOCK_SIZE; the first term of a block is stored whole,
+ *                every later one as (shared prefix, suffix), each followed
+ *                by its termId
+ *   postings     termId-indexed table of (long offset, int doc frequency)
+ *   doc table    int offsets into the doc names of the docIds from the
+ *                first docId up to the limit, plus an end
+ *   doc names    UTF-8 doc names, back to back
+ *   positions    with FLAG_POSITIONS only, termId-indexed table of the long
+ *                offset of each term's record in the positions file
+ *   scores       with FLAG_SCORES only, the total length and the number of
+ *                the documents, a termId-indexed table of (long offset in
+ *                the frequencies file, float best BM25 score), and the
+ *                int length of every document, indexed like the doc table
+ *
+ * A segment holds a contiguous range of docIds, so the docId-indexed tables
+ * start at its first docId rather than 0.
+ *
+ * Lookups binary-search the first terms of the blocks and scan one block.
+ * All reads use absolute offsets, so one Lexicon can serve many threads.
+ */
+public class Lexicon {
+
+	/* Set in flags when posting lists were written by SkipIndex */
+	public static final int FLAG_SKIPS = 1;
+	/* Set in flags when posting lists were written by RoaringIndex */
+	public static final int FLAG_ROARING = 2;
+	/* Set in flags when the index has a positions file */
+	public static final int FLAG_POSITIONS = 4;
+	/* Set in flags when the index has term frequencies and doc lengths */
+	public static final int FLAG_SCORES = 8;
+
+	/* Codecs posting lists can be written with, by their number in the header */
+	private static final String[] CODECS = { "Basic", "VB", "Gamma", "PFor" };
+
+	private static final int MAGIC = 0x4c455833; // "LEX3"
+	private static final int BLOCK_SIZE = 16;
+	private static final int HEADER_BYTES = 11 * 4;
+	private static final int POSTING_ENTRY_BYTES = 12;
+	private static final int SCORE_ENTRY_BYTES = 12;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buf;
+	private final int termCount;
+	private final int blockCount;
+	private final int termIdLimit;
+	private final int firstDocId;
+	private final int docIdLimit;
+	private final int maxTermLength;
+	private final int flags;
+	private final int codec;
+	private final int blockIndexBase;
+	private final int termDataBase;
+	private final int postingBase;
+	private final int docTableBase;
+	private final int docNameBase;
+	private final int positionBase;
+	private final int scoreBase;
+	private final int scoreTableBase;
+	private final int docLengthBase;
+
+	private Lexicon(ByteBuffer buf) throws IOException {
+		this.buf = buf;
+		if (buf.getInt(0) != MAGIC) {
+			throw new IOException("Not a lexicon file");
+		}
+		termCount = buf.getInt(4);
+		blockCount = buf.getInt(12);
+		termIdLimit = buf.getInt(16);
+		firstDocId = buf.getInt(20);
+		docIdLimit = buf.getInt(24);
+		maxTermLength = buf.getInt(28);
+		int termDataLength = buf.getInt(32);
+		flags = buf.getInt(36);
+		codec = buf.getInt(40);
+		if (codec < 0 || codec >= CODECS.length) {
+			throw new IOException("Unknown codec in lexicon: " + codec);
+		}
+
+		blockIndexBase = HEADER_BYTES;
+		termDataBase = blockIndexBase + 4 * blockCount;
+		postingBase = termDataBase + termDataLength;
+		docTableBase = postingBase + POSTING_ENTRY_BYTES * termIdLimit;
+		docNameBase = docTableBase + 4 * (docIdLimit - firstDocId + 1);
+		positionBase = docNameBase + buf.getInt(docTableBase + 4 * (docIdLimit - firstDocId));
+		scoreBase = positionBase + (hasPositions() ? 8 * termIdLimit : 0);
+		scoreTableBase = scoreBase + 12;
+		docLengthBase = scoreTableBase + SCORE_ENTRY_BYTES * termIdLimit;
+	}
+
+	/**
+	 * Maps the lexicon file read-only.
+	 */
+	public static Lexicon open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			return new Lexicon(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns true if the posting lists carry skip pointers.
+	 */
+	public boolean hasSkips() {
+		return (flags & FLAG_SKIPS) != 0;
+	}
+
+	/**
+	 * Returns true if dense posting lists are stored as bitmaps.
+	 */
+	public boolean hasBitmaps() {
+		return (flags & FLAG_ROARING) != 0;
+	}
+
+	/**
+	 * Returns true if the index has a positions file.
+	 */
+	public boolean hasPositions() {
+		return (flags & FLAG_POSITIONS) != 0;
+	}
+
+	/**
+	 * Returns true if the index has term frequencies and doc lengths.
+	 */
+	public boolean hasScores() {
+		return (flags & FLAG_SCORES) != 0;
+	}
+
+	/**
+	 * Returns the name of the codec the posting lists were written with,
+	 * as given to Index, e.g. "VB".
+	 */
+	public String getCodec() {
+		return CODECS[codec];
+	}
+
+	/**
+	 * Returns the name under which codec is given to Index and Query.
+	 */
+	public static String codecName(BaseIndex codec) {
+		return codec.getClass().getSimpleName().replaceFirst("Index$", "");
+	}
+
+	public int getTermCount() {
+		return termCount;
+	}
+
+	/**
+	 * Returns one more than the largest termId.
+	 */
+	public int getTermIdLimit() {
+		return termIdLimit;
+	}
+
+	/**
+	 * Returns the smallest docId, or 0 without documents.
+	 */
+	public int getFirstDocId() {
+		return firstDocId;
+	}
+
+	/**
+	 * Returns one more than the largest docId.
+	 */
+	public int getDocIdLimit() {
+		return docIdLimit;
+	}
+
+	/**
+	 * Returns the id of term, or -1 if it is not in the lexicon.
+	 */
+	public int getTermId(String term) {
+		if (blockCount == 0) {
+			return -1;
+		}
+		byte[] key = term.getBytes(UTF8);
+		int[] pos = new int[1];
+
+		/* Find the last block whose first term is <= key */
+		int lo = 0;
+		int hi = blockCount - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			pos[0] = termDataBase + buf.getInt(blockIndexBase + 4 * mid);
+			int len = readVInt(pos);
+			if (compare(key, pos[0], len) >= 0) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+
+		/* Scan that block, rebuilding each term from its front coding */
+		byte[] scratch = new byte[maxTermLength];
+		pos[0] = termDataBase + buf.getInt(blockIndexBase + 4 * lo);
+		int inBlock = Math.min(BLOCK_SIZE, termCount - lo * BLOCK_SIZE);
+		for (int i = 0; i < inBlock; i++) {
+			int prefix = (i == 0) ? 0 : readVInt(pos);
+			int suffix = readVInt(pos);
+			for (int j = 0; j < suffix; j++) {
+				scratch[prefix + j] = buf.get(pos[0] + j);
+			}
+			pos[0] += suffix;
+			int termId = readVInt(pos);
+
+			int cmp = compare(key, scratch, prefix + suffix);
+			if (cmp == 0) {
+				return termId;
+			}
+			if (cmp < 0) {
+				break;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the offset of termId's posting list in the index file, or -1.
+	 */
+	public long getPostingOffset(int termId) {
+		if (termId < 0 || termId >= termIdLimit) {
+			return -1;
+		}
+		return buf.getLong(postingBase + POSTING_ENTRY_BYTES * termId);
+	}
+
+	/**
+	 * Returns the offsets of all positions records, in termId order.
+	 */
+	public long[] getPositionsOffsets() {
+		long[] offsets = new long[termIdLimit];
+		int n = 0;
+		for (int termId = 0; termId < termIdLimit; termId++) {
+			long pos = getPositionsOffset(termId);
+			if (pos >= 0) {
+				offsets[n++] = pos;
+			}
+		}
+		return Arrays.copyOf(offsets, n);
+	}
+
+	/**
+	 * Returns the offset of termId's record in the positions file, or -1.
+	 */
+	public long getPositionsOffset(int termId) {
+		if (!hasPositions() || termId < 0 || termId >= termIdLimit) {
+			return -1;
+		}
+		return buf.getLong(positionBase + 8 * termId);
+	}
+
+	/**
+	 * Returns the offsets of all frequency lists, in termId order.
+	 */
+	public long[] getFrequenciesOffsets() {
+		long[] offsets = new long[termIdLimit];
+		int n = 0;
+		for (int termId = 0; termId < termIdLimit; termId++) {
+			long pos = getFrequenciesOffset(termId);
+			if (pos >= 0) {
+				offsets[n++] = pos;
+			}
+		}
+		return Arrays.copyOf(offsets, n);
+	}
+
+	/**
+	 * Returns the offset of termId's list in the frequencies file, or -1.
+	 */
+	public long getFrequenciesOffset(int termId) {
+		if (!hasScores() || termId < 0 || termId >= termIdLimit) {
+			return -1;
+		}
+		return buf.getLong(scoreTableBase + SCORE_ENTRY_BYTES * termId);
+	}
+
+	/**
+	 * Returns the best BM25 score of termId in any document of this
+	 * lexicon, under its own statistics, or 0.
+	 */
+	public float getMaxScore(int termId) {
+		if (!hasScores() || termId < 0 || termId >= termIdLimit) {
+			return 0;
+		}
+		return buf.getFloat(scoreTableBase + SCORE_ENTRY_BYTES * termId + 8);
+	}
+
+	/**
+	 * Returns the number of tokens of docId, or 0.
+	 */
+	public int getDocLength(int docId) {
+		if (!hasScores() || docId < firstDocId || docId >= docIdLimit) {
+			return 0;
+		}
+		return buf.getInt(docLengthBase + 4 * (docId - firstDocId));
+	}
+
+	/**
+	 * Returns the number of tokens of all documents together, or 0
+	 * without scores.
+	 */
+	public long getTotalDocLength() {
+		return hasScores() ? buf.getLong(scoreBase) : 0;
+	}
+
+	/**
+	 * Returns the number of documents, or 0 without scores.
+	 */
+	public int getDocCount() {
+		return hasScores() ? buf.getInt(scoreBase + 8) : 0;
+	}
+
+	/**
+	 * Returns the document frequency of termId, or 0.
+	 */
+	public int getDocFreq(int termId) {
+		if (termId < 0 || termId >= termIdLimit) {
+			return 0;
+		}
+		return buf.getInt(postingBase + POSTING_ENTRY_BYTES * termId + 8);
+	}
+
+	/**
+	 * Returns the offsets of all posting lists, in termId order.
+	 */
+	public long[] getPostingOffsets() {
+		long[] offsets = new long[termIdLimit];
+		int n = 0;
+		for (int termId = 0; termId < termIdLimit; termId++) {
+			long pos = getPostingOffset(termId);
+			if (pos >= 0) {
+				offsets[n++] = pos;
+			}
+		}
+		return Arrays.copyOf(offsets, n);
+	}
+
+	/**
+	 * Returns whether docId names a document of this lexicon.
+	 */
+	public boolean hasDoc(int docId) {
+		if (docId < firstDocId || docId >= docIdLimit) {
+			return false;
+		}
+		int entry = docTableBase + 4 * (docId - firstDocId);
+		return buf.getInt(entry) != buf.getInt(entry + 4);
+	}
+
+	public String getDocName(int docId) {
+		if (docId < firstDocId || docId >= docIdLimit) {
+			return null;
+		}
+		int start = buf.getInt(docTableBase + 4 * (docId - firstDocId));
+		int end = buf.getInt(docTableBase + 4 * (docId - firstDocId + 1));
+		if (start == end) {
+			return null;
+		}
+		byte[] name = new byte[end - start];
+		for (int i = 0; i < name.length; i++) {
+			name[i] = buf.get(docNameBase + start + i);
+		}
+		return new String(name, UTF8);
+	}
+
+	private int readVInt(int[] pos) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf.get(pos[0]++);
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/* Unsigned byte comparison of key against len bytes of the map at off */
+	private int compare(byte[] key, int off, int len) {
+		int n = Math.min(key.length, len);
+		for (int i = 0; i < n; i++) {
+			int a = key[i] & 0xff;
+			int b = buf.get(off + i) & 0xff;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return key.length - len;
+	}
+
+	private static int compare(byte[] key, byte[] term, int len) {
+		int n = Math.min(key.length, len);
+		for (int i = 0; i < n; i++) {
+			int a = key[i] & 0xff;
+			int b = term[i] & 0xff;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return key.length - len;
+	}
+
+	/**
+	 * Writes the lexicon for a finished index segment.
+	 *
+	 * @param file         lexicon file to create
+	 * @param termDict     term -> term id; only the terms in postingDict
+	 *                     are written
+	 * @param postingDict  term id -> (offset in the index file, doc frequency)
+	 * @param positionDict term id -> offset in the positions file, if flags
+	 *                     has FLAG_POSITIONS; otherwise unused
+	 * @param scoreDict    term id -> (offset in the frequencies file, best
+	 *                     score), if flags has FLAG_SCORES; otherwise unused
+	 * @param docDict      doc name -> doc id
+	 * @param docLengths   doc id -> number of tokens, if flags has
+	 *                     FLAG_SCORES; otherwise unused
+	 * @param codec        name of the codec of the posting lists, e.g. "VB"
+	 * @param flags        FLAG_ bits describing the posting format
+	 */
+	public static void write(File file, TermDictionary termDict,
+			Map<Integer, Pair<Long, Integer>> postingDict, Map<Integer, Long> positionDict,
+			Map<Integer, Pair<Long, Float>> scoreDict, Map<String, Integer> docDict,
+			IntList docLengths, String codec, int flags) throws IOException {
+		int codecNumber = Arrays.asList(CODECS).indexOf(codec);
+		if (codecNumber < 0) {
+			throw new IllegalArgumentException("Unknown codec: " + codec);
+		}
+
+		/* Sort terms by their UTF-8 bytes, the order lookups compare in */
+		int[] sorted = termDict.sortedEntriesByBytes();
+		int termCount = 0;
+		int termIdLimit = 0;
+		for (int entry : sorted) {
+			int termId = termDict.value(entry);
+			if (postingDict.containsKey(termId)) {
+				sorted[termCount++] = entry;
+				termIdLimit = Math.max(termIdLimit, termId + 1);
+			}
+		}
+
+		/* Front code the terms */
+		int blockCount = (termCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int[] blockOffsets = new int[blockCount];
+		ByteArrayOutputStream termData = new ByteArrayOutputStream();
+		int maxTermLength = 0;
+		byte[] prev = null;
+		for (int i = 0; i < termCount; i++) {
+			byte[] term = termDict.termBytes(sorted[i]);
+			maxTermLength = Math.max(maxTermLength, term.length);
+			int prefix = 0;
+			if (i % BLOCK_SIZE == 0) {
+				blockOffsets[i / BLOCK_SIZE] = termData.size();
+			} else {
+				int max = Math.min(prev.length, term.length);
+				while (prefix < max && prev[prefix] == term[prefix]) {
+					prefix++;
+				}
+				writeVInt(termData, prefix);
+			}
+			writeVInt(termData, term.length - prefix);
+			termData.write(term, prefix, term.length - prefix);
+			writeVInt(termData, termDict.value(sorted[i]));
+			prev = term;
+		}
+
+		/* Doc names, indexed by doc id from the first one */
+		int firstDocId = docDict.isEmpty() ? 0 : Integer.MAX_VALUE;
+		int docIdLimit = 0;
+		for (Integer docId : docDict.values()) {
+			firstDocId = Math.min(firstDocId, docId);
+			docIdLimit = Math.max(docIdLimit, docId + 1);
+		}
+		byte[][] docNames = new byte[docIdLimit - firstDocId][];
+		for (Map.Entry<String, Integer> entry : docDict.entrySet()) {
+			docNames[entry.getValue() - firstDocId] = entry.getKey().getBytes(UTF8);
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(termCount);
+			out.writeInt(BLOCK_SIZE);
+			out.writeInt(blockCount);
+			out.writeInt(termIdLimit);
+			out.writeInt(firstDocId);
+			out.writeInt(docIdLimit);
+			out.writeInt(maxTermLength);
+			out.writeInt(termData.size());
+			out.writeInt(flags);
+			out.writeInt(codecNumber);
+			for (int offset : blockOffsets) {
+				out.writeInt(offset);
+			}
+			termData.writeTo(out);
+
+			for (int termId = 0; termId < termIdLimit; termId++) {
+				Pair<Long, Integer> posting = postingDict.get(termId);
+				out.writeLong(posting == null ? -1 : posting.getFirst());
+				out.writeInt(posting == null ? 0 : posting.getSecond());
+			}
+
+			int nameOffset = 0;
+			for (byte[] name : docNames) {
+				out.writeInt(nameOffset);
+				nameOffset += (name == null) ? 0 : name.length;
+			}
+			out.writeInt(nameOffset);
+			for (byte[] name : docNames) {
+				if (name != null) {
+					out.write(name);
+				}
+			}
+
+			if ((flags & FLAG_POSITIONS) != 0) {
+				for (int termId = 0; termId < termIdLimit; termId++) {
+					Long offset = positionDict.get(termId);
+					out.writeLong(offset == null ? -1 : offset);
+				}
+			}
+
+			if ((flags & FLAG_SCORES) != 0) {
+				long totalLength = 0;
+				for (Integer docId : docDict.values()) {
+					totalLength += docLengths.get(docId);
+				}
+				out.writeLong(totalLength);
+				out.writeInt(docDict.size());
+				for (int termId = 0; termId < termIdLimit; termId++) {
+					Pair<Long, Float> score = scoreDict.get(termId);
+					out.writeLong(score == null ? -1 : score.getFirst());
+					out.writeFloat(score == null ? 0 : score.getSecond());
+				}
+				for (int docId = firstDocId; docId < docIdLimit; docId++) {
+					out.writeInt((docNames[docId - firstDocId] == null) ? 0 : docLengths.get(docId));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeVInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
@@ -0,0 +1,67 @@
+package cs276.assignments;
+
+import cs276.util.IntList;
+
+/**
+ * A PostingCursor over a posting list that is already decoded, for lists
+ * read through a channel or taken from a cache.
+ */
+public class ListCursor implements PostingCursor {
+	private final int termId;
+	private final IntList list;
+	private int index = -1;
+	private int doc = -1;
+
+	public ListCursor(PostingList posting) {
+		this(posting.getTermId(), posting.getList());
+	}
+
+	public ListCursor(int termId, IntList list) {
+		this.termId = termId;
+		this.list = list;
+	}
+
+	@Override
+	public int termId() {
+		return termId;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int next() {
+		if (index + 1 >= list.size()) {
+			index = list.size();
+			return doc = NO_MORE_DOCS;
+		}
+		return doc = list.get(++index);
+	}
+
+	@Override
+	public int advance(int target) {
+		if (doc >= target) {
+			return doc;
+		}
+		/* Binary search the rest of the list for the first docId >= target */
+		int lo = index + 1;
+		int hi = list.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (list.get(mid) < target) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		index = lo;
+		return doc = (lo < list.size()) ? list.get(lo) : NO_MORE_DOCS;
+	}
+
+	@Override
+	public int cost() {
+		return list.size();
+	}
+}
@@ -0,0 +1,197 @@
+package cs276.assignments;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import cs276.util.IntList;
+import cs276.util.RadixSort;
+
+/**
+ * The in-memory half of blocked sort-based indexing: every posting of the
+ * current block is appended to one growable long[] as termId << 32 | docId,
+ * with no object per term, until the estimated heap footprint reaches the
+ * budget. The block is then radix-sorted by term id in place of a tree
+ * lookup per posting, and streamed out as one sorted run.
+ *
+ * Postings must be added in increasing docId order, which Index guarantees
+ * by folding document batches in in the order their ids were assigned;
+ * the sort is stable, so the docIds of every term come out sorted.
+ *
+ * With positions or term frequencies, the low half of each long is
+ * instead the number of the posting in order of addition, which indexes
+ * side arrays holding its docId, its frequency and where its positions
+ * start in a shared pool, so that they travel with the posting through
+ * the sort.
+ */
+public class MemoryIndex {
+
+	// Packed postings of the block, in the order they were added
+	private long[] postings = new long[1 << 10];
+	// The other buffer of the radix sort, as large as postings once used
+	private long[] scratch = new long[0];
+	private int size = 0;
+	// Largest term id added since the last flush
+	private int maxTermId = 0;
+
+	// Posting number -> docId, or null if postings are not numbered
+	private int[] docIds;
+	// Posting number -> start of its positions in the pool, which has one
+	// more entry, the end; null without positions
+	private int[] positionStarts;
+	private IntList positionPool;
+	// Posting number -> term frequency, or null without frequencies
+	private int[] frequencies;
+
+	// Pool to sort large blocks on, or null, and the parts to sort them in
+	private final ExecutorService sortPool;
+	private final int sortParts;
+
+	/**
+	 * @param sortPool       pool to sort large blocks on, or null to sort
+	 *                       on the calling thread
+	 * @param sortParts      number of parts to split large blocks into
+	 * @param withPositions  whether postings carry positions
+	 * @param withFrequencies  whether postings carry term frequencies
+	 */
+	public MemoryIndex(ExecutorService sortPool, int sortParts, boolean withPositions,
+			boolean withFrequencies) {
+		this.sortPool = sortPool;
+		this.sortParts = sortParts;
+		if (withPositions || withFrequencies) {
+			docIds = new int[postings.length];
+		}
+		if (withPositions) {
+			positionStarts = new int[postings.length + 1];
+			positionPool = new IntList();
+		}
+		if (withFrequencies) {
+			frequencies = new int[postings.length];
+		}
+	}
+
+	/**
+	 * Appends a sorted run of docIds to the postings of termId, with the
+	 * positions and the frequency of termId in each of them if postings
+	 * carry those.
+	 */
+	public void add(int termId, IntList docIds, Positions positions, IntList tfs) {
+		int n = docIds.size();
+		if (size + n > postings.length) {
+			postings = Arrays.copyOf(postings, Math.max(size + n, postings.length * 2));
+			if (this.docIds != null) {
+				this.docIds = Arrays.copyOf(this.docIds, postings.length);
+			}
+			if (positionPool != null) {
+				positionStarts = Arrays.copyOf(positionStarts, postings.length + 1);
+			}
+			if (frequencies != null) {
+				frequencies = Arrays.copyOf(frequencies, postings.length);
+			}
+		}
+		long high = (long) termId << 32;
+		int[] ids = docIds.array();
+		if (this.docIds == null) {
+			for (int i = 0; i < n; i++) {
+				postings[size++] = high | ids[i];
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				this.docIds[size] = ids[i];
+				if (positionPool != null) {
+					IntList pooled = positions.getPositions();
+					for (int j = positions.start(i); j < positions.end(i); j++) {
+						positionPool.add(pooled.get(j));
+					}
+					positionStarts[size + 1] = positionPool.size();
+				}
+				if (frequencies != null) {
+					frequencies[size] = tfs.get(i);
+				}
+				postings[size] = high | size;
+				size++;
+			}
+		}
+		maxTermId = Math.max(maxTermId, termId);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Estimated heap taken by the postings held, including the sort buffer
+	 * they need. Only what is in use counts: clear() keeps the arrays for
+	 * the next run, which fills them just as far again.
+	 */
+	public long estimatedBytes() {
+		long bytes = 16L * size;
+		if (docIds != null) {
+			bytes += 4L * size;
+		}
+		if (positionPool != null) {
+			bytes += 4L * (size + 1 + positionPool.size());
+		}
+		if (frequencies != null) {
+			bytes += 4L * size;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Sorts the postings by term id and returns them; the first size()
+	 * are valid until the next add or clear.
+	 */
+	public long[] sortedPostings() {
+		if (scratch.length < postings.length) {
+			scratch = new long[postings.length];
+		}
+		int keyBits = 32 - Integer.numberOfLeadingZeros(maxTermId);
+		long[] sorted = RadixSort.sortByHigh(postings, scratch, size, keyBits, sortPool, sortParts);
+		if (sorted != postings) {
+			scratch = postings;
+			postings = sorted;
+		}
+		return postings;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public static int termId(long posting) {
+		return (int) (posting >>> 32);
+	}
+
+	public int docId(long posting) {
+		return (docIds == null) ? (int) posting : docIds[(int) posting];
+	}
+
+	/**
+	 * Returns the term frequency of a sorted posting.
+	 */
+	public int frequency(long posting) {
+		return frequencies[(int) posting];
+	}
+
+	/**
+	 * Adds the positions of a sorted posting to those of its last
+	 * document in into.
+	 */
+	public void addPositions(long posting, Positions into) {
+		int number = (int) posting;
+		for (int i = positionStarts[number]; i < positionStarts[number + 1]; i++) {
+			into.add(positionPool.get(i));
+		}
+	}
+
+	/**
+	 * Drops all postings once they have been written out.
+	 */
+	public void clear() {
+		size = 0;
+		maxTermId = 0;
+		if (positionPool != null) {
+			positionPool.clear();
+		}
+	}
+}
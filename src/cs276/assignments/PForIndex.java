@@ -0,0 +1,333 @@
+package cs276.assignments;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.util.Arrays;
+
+import cs276.util.IntList;
+
+public class PForIndex implements BaseIndex, BlockCodec {
+
+    /*
+            Patched frame of reference over d-gaps. Like VB and Gamma the
+            posting list starts with termId, doc frequency and the byte
+            length of the body. The body holds the gaps minus one (lists
+            are strictly increasing, so runs of consecutive docIds cost
+            nothing) in chunks of CHUNK_SIZE, the last one possibly short.
+            Each chunk is
+
+                byte  bit width b
+                byte  number of exceptions
+                int[] the low b bits of every gap, packed back to back
+                      into ceil(count * b / 32) ints
+                then  (index byte, vint of the bits above b) per exception
+
+            b is chosen per chunk to minimize its size, so a few large gaps
+            are patched in as exceptions instead of widening every slot.
+    */
+
+    private static final int CHUNK_SIZE = 128;
+
+    @Override
+    public PostingList readPosting(ReadableByteChannel fc) {
+        try {
+            /* read termId / doc frequency, and bytes needed to decode */
+            ByteBuffer bb = ByteBuffer.allocate(12);
+
+            int bytesRead = fc.read(bb);
+            if (bytesRead == -1) {
+                System.err.println("PFor: readPosting read fewer than 12 bytes from fc");
+                return null;
+            }
+            int numBytes = bb.getInt(8);
+
+            // read postings list in behind the header and decode it in place
+            ByteBuffer docBuf = ByteBuffer.allocate(12 + numBytes);
+            bb.flip();
+            docBuf.put(bb);
+            bytesRead = fc.read(docBuf);
+            if (bytesRead == -1) {
+                System.err.println("PFor: readPosting read fewer than " + numBytes + " bytes from fc");
+                return null;
+            }
+            docBuf.flip();
+            return readPosting(docBuf);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public PostingList readPosting(ByteBuffer buf) {
+        try {
+            int termId = buf.getInt();
+            int docFreq = buf.getInt();
+            int numBytes = buf.getInt();
+            int start = buf.position();
+
+            // translate postings list
+            int[] list = new int[docFreq];
+            decodeBlock(buf, start, numBytes, docFreq, 0, list);
+
+            buf.position(start + numBytes);
+            return new PostingList(termId, new IntList(list, docFreq));
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public void writePosting(WritableByteChannel fc, PostingList p) {
+        try {
+            int termId = p.getTermId();
+            IntList docList = p.getList();
+
+            byte[] body = encodeBlock(docList.array(), 0, docList.size(), 0);
+
+            // Write buffers out
+            ByteBuffer bb = ByteBuffer.allocate(12 + body.length);
+            bb.putInt(termId);
+            bb.putInt(docList.size());
+            bb.putInt(body.length);
+            bb.put(body);
+            bb.flip();
+            while (bb.hasRemaining()) {
+                fc.write(bb);
+            }
+        }
+        catch (IOException e) {
+            System.err.println("PFor WritePosting Error: " + e.toString());
+        }
+    }
+
+    @Override
+    public byte[] encodeBlock(int[] docIds, int from, int to, int base) {
+        // worst case per chunk: full-width slots, or one 5-byte vint
+        // exception per gap
+        int numChunks = (to - from + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        ByteBuffer out = ByteBuffer.allocate(6 * numChunks + 6 * (to - from));
+        int[] gaps = new int[CHUNK_SIZE];
+        int prev = base;
+
+        for (int start = from; start < to; start += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, to - start);
+            for (int i = 0; i < count; i++) {
+                gaps[i] = docIds[start + i] - prev - 1;
+                prev = docIds[start + i];
+            }
+            encodeChunk(gaps, count, out);
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    @Override
+    public void decodeBlock(ByteBuffer buf, int offset, int numBytes, int count, int base, int[] out) {
+        int[] words = new int[CHUNK_SIZE + 2];
+        int[] gaps = new int[CHUNK_SIZE];
+        int pos = offset;
+        int prev = base;
+
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            int chunkCount = Math.min(CHUNK_SIZE, count - start);
+            pos = decodeChunk(buf, pos, chunkCount, words, gaps);
+            for (int i = 0; i < chunkCount; i++) {
+                prev += gaps[i] + 1;
+                out[start + i] = prev;
+            }
+        }
+    }
+
+    @Override
+    public PostingCursor openCursor(ByteBuffer buf) {
+        int start = buf.position();
+        int numBytes = buf.getInt(start + 8);
+        buf.position(start + 12 + numBytes);
+        return new PForCursor(buf, start);
+    }
+
+    /*
+        Decodes a chunk at a time, so it holds at most CHUNK_SIZE
+        gaps however long the list is.
+    */
+    private static class PForCursor implements PostingCursor {
+        private final ByteBuffer buf;
+        private final int termId;
+        private final int docFreq;
+        private final int[] words = new int[CHUNK_SIZE + 2];
+        private final int[] gaps = new int[CHUNK_SIZE];
+        private int pos;
+        private int count = 0;
+        private int index = 0;
+        private int chunkCount = 0;
+        private int doc = -1;
+
+        PForCursor(ByteBuffer buf, int offset) {
+            this.buf = buf;
+            this.termId = buf.getInt(offset);
+            this.docFreq = buf.getInt(offset + 4);
+            this.pos = offset + 12;
+        }
+
+        @Override
+        public int termId() {
+            return termId;
+        }
+
+        @Override
+        public int docId() {
+            return doc;
+        }
+
+        @Override
+        public int next() {
+            if (count >= docFreq) {
+                return doc = NO_MORE_DOCS;
+            }
+            if (index == chunkCount) {
+                chunkCount = Math.min(CHUNK_SIZE, docFreq - count);
+                pos = decodeChunk(buf, pos, chunkCount, words, gaps);
+                index = 0;
+            }
+            count++;
+            return doc = Math.max(doc, 0) + gaps[index++] + 1;
+        }
+
+        @Override
+        public int advance(int target) {
+            while (doc < target) {
+                next();
+            }
+            return doc;
+        }
+
+        @Override
+        public int cost() {
+            return docFreq;
+        }
+    }
+
+    /*
+     * Decodes the count gaps (minus one) of the chunk at pos into gaps,
+     * using words as scratch, and returns the position after the chunk.
+     * */
+    private static int decodeChunk(ByteBuffer buf, int pos, int count, int[] words, int[] gaps) {
+        int width = buf.get(pos) & 0xff;
+        int numExceptions = buf.get(pos + 1) & 0xff;
+        pos += 2;
+
+        int numWords = (count * width + 31) >>> 5;
+        for (int w = 0; w < numWords; w++, pos += 4) {
+            words[w] = buf.getInt(pos);
+        }
+        words[numWords] = 0;
+        unpack(words, width, count, gaps);
+
+        // patch the high bits of the exceptions back in
+        for (int e = 0; e < numExceptions; e++) {
+            int index = buf.get(pos++) & 0xff;
+            int high = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf.get(pos++);
+                high |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            gaps[index] |= high << width;
+        }
+        return pos;
+    }
+
+    /*
+     * Picks the bit width that makes the chunk smallest, then writes it.
+     * */
+    private void encodeChunk(int[] gaps, int count, ByteBuffer out) {
+        int width = 32;
+        int bestBytes = Integer.MAX_VALUE;
+        for (int b = 0; b <= 32; b++) {
+            int bytes = 4 * ((count * b + 31) >>> 5);
+            for (int i = 0; i < count && bytes < bestBytes; i++) {
+                if (b < 32 && (gaps[i] >>> b) != 0) {
+                    bytes += 1 + vintLength(gaps[i] >>> b);
+                }
+            }
+            if (bytes < bestBytes) {
+                bestBytes = bytes;
+                width = b;
+            }
+        }
+
+        int numExceptions = 0;
+        int[] words = new int[CHUNK_SIZE + 1];
+        long mask = (1L << width) - 1;
+        for (int i = 0; i < count; i++) {
+            long bit = (long) i * width;
+            int w = (int) (bit >>> 5);
+            long value = (gaps[i] & mask) << (bit & 31);
+            words[w] |= (int) value;
+            words[w + 1] |= (int) (value >>> 32);
+            if (width < 32 && (gaps[i] >>> width) != 0) {
+                numExceptions++;
+            }
+        }
+
+        out.put((byte) width);
+        out.put((byte) numExceptions);
+        int numWords = (count * width + 31) >>> 5;
+        for (int w = 0; w < numWords; w++) {
+            out.putInt(words[w]);
+        }
+        for (int i = 0; i < count && numExceptions > 0; i++) {
+            int high = (width < 32) ? gaps[i] >>> width : 0;
+            if (high != 0) {
+                out.put((byte) i);
+                while ((high & ~0x7f) != 0) {
+                    out.put((byte) ((high & 0x7f) | 0x80));
+                    high >>>= 7;
+                }
+                out.put((byte) high);
+            }
+        }
+    }
+
+    /*
+     * Unpacks count values of width bits. A width of 0 is a run of
+     * consecutive docIds; otherwise each value is one shift and mask of
+     * a 64-bit window that slides a word at a time. The slide follows a
+     * fixed pattern for each width, so it predicts perfectly.
+     * */
+    private static void unpack(int[] words, int width, int count, int[] out) {
+        if (width == 0) {
+            Arrays.fill(out, 0, count, 0);
+            return;
+        }
+        int mask = (int) ((1L << width) - 1);
+        int w = 0;
+        int shift = 0;
+        long window = (words[0] & 0xffffffffL) | ((long) words[1] << 32);
+        for (int i = 0; i < count; i++) {
+            out[i] = (int) (window >>> shift) & mask;
+            shift += width;
+            if (shift >= 32) {
+                shift -= 32;
+                w++;
+                window = (words[w] & 0xffffffffL) | ((long) words[w + 1] << 32);
+            }
+        }
+    }
+
+    private static int vintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,294 @@
+package cs276.assignments;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import cs276.util.IntList;
+
+/**
+ * The positions of one term in each document of its posting list, in
+ * posting list order: the token offsets of the term in the first document,
+ * then in the second, and so on.
+ *
+ * On disk the positions of a term are a record of the positions file that
+ * sits beside every index file and run, in the same term order:
+ *
+ *   header   document count, block count, and the end offset of each
+ *            block relative to the first
+ *   blocks   the positions of BLOCK_DOCS documents at a time, as two
+ *            lists written by the codec of the index: the running count
+ *            of positions up to each document, and every position of
+ *            the block folded into one strictly increasing sequence, the
+ *            first position of a document as its offset plus one from
+ *            the last value and the others as gaps
+ *
+ * so the codec gap-codes positions just like docIds, and a query can
+ * decode the block of one document without touching the others.
+ */
+public class Positions {
+
+	// Documents per block of a positions record
+	public static final int BLOCK_DOCS = 128;
+
+	// Document k -> start of its positions; has one more entry, the end
+	private final IntList starts;
+	private final IntList positions;
+
+	public Positions() {
+		this(new IntList(), new IntList());
+		starts.add(0);
+	}
+
+	private Positions(IntList starts, IntList positions) {
+		this.starts = starts;
+		this.positions = positions;
+	}
+
+	public int docCount() {
+		return starts.size() - 1;
+	}
+
+	/**
+	 * Returns the start of the positions of document k in getPositions().
+	 */
+	public int start(int k) {
+		return starts.get(k);
+	}
+
+	/**
+	 * Returns the end of the positions of document k in getPositions().
+	 */
+	public int end(int k) {
+		return starts.get(k + 1);
+	}
+
+	public IntList getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Returns the heap held by the arrays of these positions.
+	 */
+	public long estimatedBytes() {
+		return 4L * (starts.array().length + positions.array().length);
+	}
+
+	/**
+	 * Starts the positions of the next document.
+	 */
+	public void startDoc() {
+		starts.add(positions.size());
+	}
+
+	/**
+	 * Adds a position to the last document started; positions of a
+	 * document must be added in increasing order.
+	 */
+	public void add(int position) {
+		positions.add(position);
+		starts.set(starts.size() - 1, positions.size());
+	}
+
+	/**
+	 * Adds the positions of document k of other as the next document.
+	 */
+	public void addDoc(Positions other, int k) {
+		startDoc();
+		for (int i = other.start(k); i < other.end(k); i++) {
+			add(other.positions.get(i));
+		}
+	}
+
+	/**
+	 * Appends every document of other after those of this.
+	 */
+	public void append(Positions other) {
+		int base = positions.size();
+		positions.addAll(other.positions);
+		for (int k = 1; k < other.starts.size(); k++) {
+			starts.add(base + other.starts.get(k));
+		}
+	}
+
+	/**
+	 * Merges the positions of two posting lists as IntList.union merges
+	 * their docIds; a document in both gets the positions of both.
+	 */
+	public static Positions union(IntList aDocs, Positions a, IntList bDocs, Positions b) {
+		Positions merged = new Positions();
+		int i = 0;
+		int j = 0;
+		while (i < aDocs.size() || j < bDocs.size()) {
+			int aDoc = (i < aDocs.size()) ? aDocs.get(i) : Integer.MAX_VALUE;
+			int bDoc = (j < bDocs.size()) ? bDocs.get(j) : Integer.MAX_VALUE;
+			if (aDoc < bDoc) {
+				merged.addDoc(a, i++);
+			} else if (bDoc < aDoc) {
+				merged.addDoc(b, j++);
+			} else {
+				merged.startDoc();
+				IntList both = IntList.union(slice(a, i++), slice(b, j++));
+				for (int k = 0; k < both.size(); k++) {
+					merged.add(both.get(k));
+				}
+			}
+		}
+		return merged;
+	}
+
+	private static IntList slice(Positions p, int k) {
+		IntList list = new IntList(p.end(k) - p.start(k));
+		for (int i = p.start(k); i < p.end(k); i++) {
+			list.add(p.positions.get(i));
+		}
+		return list;
+	}
+
+	/**
+	 * Writes these positions to out as the record of termId.
+	 */
+	public void write(BaseIndex codec, WritableByteChannel out, int termId) throws IOException {
+		int blockCount = (docCount() + BLOCK_DOCS - 1) / BLOCK_DOCS;
+		ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+		WritableByteChannel blockChannel = Channels.newChannel(blocks);
+		ByteBuffer header = ByteBuffer.allocate(headerBytes(blockCount));
+		header.putInt(docCount());
+		header.putInt(blockCount);
+
+		for (int b = 0; b < blockCount; b++) {
+			int first = b * BLOCK_DOCS;
+			int last = Math.min(first + BLOCK_DOCS, docCount());
+			IntList counts = new IntList(last - first);
+			IntList folded = new IntList(end(last - 1) - start(first));
+			int value = 0;
+			for (int k = first; k < last; k++) {
+				int previous = -1;
+				for (int i = start(k); i < end(k); i++) {
+					value += positions.get(i) - previous;
+					previous = positions.get(i);
+					folded.add(value);
+				}
+				counts.add(end(k) - start(first));
+			}
+			codec.writePosting(blockChannel, new PostingList(termId, counts));
+			codec.writePosting(blockChannel, new PostingList(termId, folded));
+			header.putInt(blocks.size());
+		}
+
+		header.flip();
+		while (header.hasRemaining()) {
+			out.write(header);
+		}
+		ByteBuffer body = ByteBuffer.wrap(blocks.toByteArray());
+		while (body.hasRemaining()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Reads a whole record from in, which is left just past it. Returns
+	 * null if the record cannot be read.
+	 */
+	public static Positions read(BaseIndex codec, ReadableByteChannel in) throws IOException {
+		ByteBuffer header = readFully(in, 8);
+		int docCount = header.getInt(0);
+		int blockCount = header.getInt(4);
+		readFully(in, 4 * blockCount);
+
+		Positions all = new Positions(new IntList(docCount + 1), new IntList());
+		all.starts.add(0);
+		for (int b = 0; b < blockCount; b++) {
+			PostingList counts = codec.readPosting(in);
+			PostingList folded = (counts == null) ? null : codec.readPosting(in);
+			if (folded == null) {
+				return null;
+			}
+			all.append(unfold(counts.getList(), folded.getList()));
+		}
+		return all;
+	}
+
+	/**
+	 * Reads the block of document k from the record at offset of buf,
+	 * without moving buf. Document k is document k % BLOCK_DOCS of the
+	 * positions returned. Returns null if the block cannot be read.
+	 */
+	public static Positions readBlock(BaseIndex codec, ByteBuffer buf, int offset, int k) {
+		ByteBuffer block = buf.duplicate();
+		block.position(offset + blockStart(buf, offset, k));
+		return readBlock(codec, block);
+	}
+
+	/**
+	 * Decodes the block at the position of buf, leaving buf just past it.
+	 * Returns null if the block cannot be read.
+	 */
+	public static Positions readBlock(BaseIndex codec, ByteBuffer buf) {
+		PostingList counts = codec.readPosting(buf);
+		PostingList folded = (counts == null) ? null : codec.readPosting(buf);
+		if (folded == null) {
+			return null;
+		}
+		return unfold(counts.getList(), folded.getList());
+	}
+
+	/**
+	 * Returns the number of bytes of the header of a record of blockCount
+	 * blocks; the block count is the second int of every record.
+	 */
+	public static int headerBytes(int blockCount) {
+		return 8 + 4 * blockCount;
+	}
+
+	/**
+	 * Returns where the block of document k starts, relative to the record
+	 * at offset of buf, of which only the header needs to be there.
+	 */
+	public static int blockStart(ByteBuffer buf, int offset, int k) {
+		int block = k / BLOCK_DOCS;
+		int blockCount = buf.getInt(offset + 4);
+		return headerBytes(blockCount) + ((block == 0) ? 0 : buf.getInt(offset + 8 + 4 * (block - 1)));
+	}
+
+	/**
+	 * Returns where the block of document k ends, relative to the record
+	 * at offset of buf, of which only the header needs to be there.
+	 */
+	public static int blockEnd(ByteBuffer buf, int offset, int k) {
+		int blockCount = buf.getInt(offset + 4);
+		return headerBytes(blockCount) + buf.getInt(offset + 8 + 4 * (k / BLOCK_DOCS));
+	}
+
+	/* Undoes the folding of a block done by write() */
+	private static Positions unfold(IntList counts, IntList folded) {
+		IntList starts = new IntList(counts.size() + 1);
+		IntList positions = new IntList(folded.size());
+		starts.add(0);
+		int previous = 0;
+		for (int k = 0; k < counts.size(); k++) {
+			int position = -1;
+			for (int i = starts.last(); i < counts.get(k); i++) {
+				position += folded.get(i) - previous;
+				previous = folded.get(i);
+				positions.add(position);
+			}
+			starts.add(counts.get(k));
+		}
+		return new Positions(starts, positions);
+	}
+
+	private static ByteBuffer readFully(ReadableByteChannel in, int n) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(n);
+		while (buf.hasRemaining()) {
+			if (in.read(buf) < 0) {
+				throw new IOException("Positions record ends early");
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+}
@@ -0,0 +1,119 @@
+package cs276.assignments;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cs276.util.IntList;
+
+/**
+ * Decoded posting lists kept between queries, keyed by segment and termId
+ * (see Segment) and bounded by an estimate of their heap size rather than
+ * by entry count. Lists not used for the longest time are evicted first.
+ * Pinned lists are loaded once at startup, are never evicted and are held
+ * in addition to the budget.
+ *
+ * Cached lists are shared between queries, so callers must not modify
+ * them.
+ */
+public class PostingCache {
+
+	// Rough heap cost of an entry besides its ints: map entry, boxed key,
+	// IntList and array headers
+	private static final int ENTRY_OVERHEAD = 96;
+
+	private final long maxBytes;
+	private long bytes = 0;
+	// Access-ordered, so iteration starts at the least recently used
+	private final LinkedHashMap<Long, IntList> lru =
+			new LinkedHashMap<Long, IntList>(16, 0.75f, true);
+	// Filled before the cache is shared and only read afterwards
+	private final Map<Long, IntList> pinned = new HashMap<Long, IntList>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxBytes  budget for the evictable lists, 0 to cache only pins
+	 */
+	public PostingCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the cached list under key, or null on a miss.
+	 */
+	public IntList get(long key) {
+		IntList list = pinned.get(key);
+		if (list == null) {
+			synchronized (this) {
+				list = lru.get(key);
+			}
+		}
+		if (list == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return list;
+	}
+
+	/**
+	 * Caches list under key, evicting the least recently used lists
+	 * until it fits. Lists larger than the whole budget are not cached.
+	 */
+	public void put(long key, IntList list) {
+		long size = sizeOf(list);
+		if (size > maxBytes || pinned.containsKey(key)) {
+			return;
+		}
+		synchronized (this) {
+			IntList old = lru.put(key, list);
+			if (old != null) {
+				bytes -= sizeOf(old);
+			}
+			bytes += size;
+
+			Iterator<IntList> it = lru.values().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				bytes -= sizeOf(it.next());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Keeps list under key for the life of the cache. Only call this
+	 * before the cache is shared between threads.
+	 */
+	public void pin(long key, IntList list) {
+		pinned.put(key, list);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		long h = getHits();
+		long m = getMisses();
+		return "posting cache: " + h + " hits, " + m + " misses ("
+				+ (h + m == 0 ? 0 : 100 * h / (h + m)) + "%), "
+				+ pinned.size() + " pinned, " + getBytes() + "/" + maxBytes + " bytes";
+	}
+
+	private static long sizeOf(IntList list) {
+		return ENTRY_OVERHEAD + 4L * list.array().length;
+	}
+}
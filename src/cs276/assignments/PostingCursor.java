@@ -0,0 +1,28 @@
+package cs276.assignments;
+
+/*
+ * Walks one posting list in docId order without decoding all of it. A
+ * fresh cursor sits before the first posting; docId() is then -1.
+ */
+public interface PostingCursor {
+
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	/* Term id of the list */
+	public int termId ();
+
+	/* Current docId, -1 before the first call, NO_MORE_DOCS when done */
+	public int docId ();
+
+	/* Moves to the next posting and returns its docId */
+	public int next ();
+
+	/*
+	 * Moves to the first posting with docId >= target and returns its
+	 * docId. Never moves backwards.
+	 */
+	public int advance (int target);
+
+	/* Number of postings in the list */
+	public int cost ();
+}
@@ -1,29 +1,28 @@
 package cs276.assignments;
 
-import java.util.ArrayList;
-import java.util.List;
+import cs276.util.IntList;
 
 public class PostingList {
 
 	private int termId;
 	/* A list of docIDs (i.e. postings) */
-	private List<Integer> postings;
+	private IntList postings;
 
-	public PostingList(int termId, List<Integer> list) {
+	public PostingList(int termId, IntList list) {
 		this.termId = termId;
 		this.postings = list;
 	}
 
 	public PostingList(int termId) {
 		this.termId = termId;
-		this.postings = new ArrayList<Integer>();
+		this.postings = new IntList();
 	}
 
 	public int getTermId() {
 		return this.termId;
 	}
 
-	public List<Integer> getList() {
+	public IntList getList() {
 		return this.postings;
 	}
 }
@@ -1,66 +1,36 @@
 package cs276.assignments;
 
 import java.io.BufferedReader; import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.security.KeyException;
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.TreeSet;
 
 public class Query {
 
-	// Term id -> position in index file
-	private static Map<Integer, Long> posDict = new TreeMap<Integer, Long>();
-	// Term id -> document frequency
-	private static Map<Integer, Integer> freqDict = new TreeMap<Integer, Integer>();
-	// Doc id -> doc name dictionary
-	private static Map<Integer, String> docDict = new TreeMap<Integer, String>();
-	// Term -> term id dictionary
-	private static Map<String, Integer> termDict = new TreeMap<String, Integer>();
-	// Index
-	private static BaseIndex index = null;
-
-	
-	/* 
-	 * Write a posting list with a given termID from the file 
-	 * You should seek to the file position of this specific
-	 * posting list and read it back.
-	 * */
-	private static PostingList readPosting(FileChannel fc, int termId)
-			throws IOException {
-        if (!posDict.containsKey(termId)) {
-        	return null;
-        }
-        
-        long pos = posDict.get(termId);
-        fc.position(pos);
-        return index.readPosting(fc);
-	}
+	// Whether to memory-map the index file
+	private static boolean useMmap = Boolean.parseBoolean(System.getProperty("query.mmap", "true"));
+	// Megabytes of decoded posting lists to keep between queries
+	private static long cacheBytes = Long.getLong("query.cache", 64) << 20;
+	// Number of highest-df terms decoded at startup and never evicted
+	private static int pinCount = Integer.getInteger("query.pin", 0);
+	// Number of best documents to return by BM25, or 0 for boolean queries
+	private static int topK = Math.max(0, Integer.getInteger("query.topk", 0));
+	// Number of segments of the index queried at once
+	private static int queryThreads = Math.max(1, Integer.getInteger("query.threads",
+			Runtime.getRuntime().availableProcessors()));
+	// File to write the JSON metrics report to, or null for none
+	private static String reportFile = System.getProperty("query.report");
 
 	public static void main(String[] args) throws IOException {
 		/* Parse command line */
 		if (args.length != 2) {
-			System.err.println("Usage: java Query [Basic|VB|Gamma] index_dir");
+			System.err.println("Usage: java [-Dquery.mmap=false] [-Dquery.cache=MB] [-Dquery.pin=N] [-Dquery.topk=K] [-Dquery.threads=N] [-Dquery.report=file.json] Query [Basic|VB|Gamma|PFor] index_dir");
 			return;
 		}
 
 		/* Get index */
-		String className = "cs276.assignments." + args[0] + "Index";
-		try {
-			Class<?> indexClass = Class.forName(className);
-			index = (BaseIndex) indexClass.newInstance();
-		} catch (Exception e) {
-			System.err
-					.println("Index method must be \"Basic\", \"VB\", or \"Gamma\"");
-			throw new RuntimeException(e);
-		}
+		BaseIndex index = QueryEngine.createIndex(args[0]);
 
 		/* Get index directory */
 		String input = args[1];
@@ -70,121 +40,36 @@ public class Query {
 			return;
 		}
 
-		/* Index file */
-		RandomAccessFile indexFile = new RandomAccessFile(new File(input,
-				"corpus.index"), "r");
-
-		String line = null;
-		/* Term dictionary */
-		BufferedReader termReader = new BufferedReader(new FileReader(new File(
-				input, "term.dict")));
-		while ((line = termReader.readLine()) != null) {
-			String[] tokens = line.split("\t");
-			termDict.put(tokens[0], Integer.parseInt(tokens[1]));
-		}
-		termReader.close();
-
-		/* Doc dictionary */
-		BufferedReader docReader = new BufferedReader(new FileReader(new File(
-				input, "doc.dict")));
-		while ((line = docReader.readLine()) != null) {
-			String[] tokens = line.split("\t");
-			docDict.put(Integer.parseInt(tokens[1]), tokens[0]);
-		}
-		docReader.close();
-
-		/* Posting dictionary */
-		BufferedReader postReader = new BufferedReader(new FileReader(new File(
-				input, "posting.dict")));
-		while ((line = postReader.readLine()) != null) {
-			String[] tokens = line.split("\t");
-			posDict.put(Integer.parseInt(tokens[0]), Long.parseLong(tokens[1]));
-			freqDict.put(Integer.parseInt(tokens[0]),
-					Integer.parseInt(tokens[2]));
-		}
-		postReader.close();
+		QueryEngine engine = new QueryEngine(index, inputdir, useMmap,
+				cacheBytes, pinCount, queryThreads);
 
 		/* Processing queries */
 		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
 
 		/* For each query */
+		String line = null;
 		while ((line = br.readLine()) != null) {
-            String tokens[] = line.trim().split("\\s+");
-
-            /*
-                Maintain a final list of doc ids that represent the
-                intersection of all queries. For each token, intersect
-                its list with this "final list".
-            */
-
-            ArrayList<Integer> finalDocIdList = new ArrayList<Integer>();
-            boolean emptyResult = false;
-
-            for (String token: tokens) {
-                List<Integer> nextDocIdList = null;
-                if (termDict.containsKey(token)) {
-                    int tokenId = termDict.get(token);
-                    indexFile.seek(0);
-                    PostingList pl = readPosting(indexFile.getChannel(), tokenId);
-                    if (pl != null) {
-                      nextDocIdList = pl.getList();
-                    } 
-                } else {
-                    emptyResult = true;
-                    break;
-                }
-
-                /* If offset goes past file, then we have an error in recording */
-                if (nextDocIdList == null) {
-                    break;  
-                }
-
-                /* Special case the first query since we're intersecting with nothing */
-                if (finalDocIdList.size() == 0) {
-                    finalDocIdList.addAll(nextDocIdList);
-                }
-
-                /* Our familiar  */
-                else {
-                    int idx1 = 0;
-                    int idx2 = 0;
-
-                    ArrayList<Integer> intersect = new ArrayList<Integer>();
-                    while ((idx1 != finalDocIdList.size()) && (idx2 != nextDocIdList.size())) {
-                        int docId1 = finalDocIdList.get(idx1);
-                        int docId2 = nextDocIdList.get(idx2);
-                        if (docId1 == docId2) {
-                            intersect.add(docId1);
-                            idx1++;
-                            idx2++;
-                        } else if (docId1 > docId2) {
-                            idx2++;
-                        } else {
-                            idx1++;
-                        }
-                    }
-                    finalDocIdList.clear();
-                    finalDocIdList.addAll(intersect);
-                }
-            }
-
-            /* Print Results */
-            if (emptyResult) {
-                System.out.println("no results found");
-            } else {
-            		// TODO Optimize out this O(N) operation that removes duplicates
-            		// from finalDocIdlist
-            		TreeSet<Integer> uniqueDocs = new TreeSet<Integer>(finalDocIdList);
-                TreeSet<String> docNames = new TreeSet<String>();
-                for (Integer docId : uniqueDocs) {
-                    docNames.add(docDict.get(docId));
-                }
-                for (String docName : docNames) {
-                    System.out.println(docName);
-                }
-            }
+			List<String> docNames;
+			try {
+				docNames = (topK > 0) ? engine.rank(line, topK) : engine.query(line);
+			} catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				docNames = Collections.emptyList();
+			}
+
+			/* Print Results */
+			if (docNames.isEmpty()) {
+				System.out.println("no results found");
+			} else {
+				for (String docName : docNames) {
+					System.out.println(docName);
+				}
+			}
 		}
 		br.close();
-		indexFile.close();
+		if (reportFile != null) {
+			engine.getMetrics().writeReport(new File(reportFile));
+		}
+		engine.close();
 	}
 }
@@ -0,0 +1,377 @@
+package cs276.assignments;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import cs276.util.IntList;
+import cs276.util.Metrics;
+
+/**
+ * An index opened once and queried many times. Query runs it over stdin
+ * and QueryServer shares one engine between all of its connections, so
+ * everything here is safe to call from several threads: the lexicons and
+ * the mapped indexes are only read by absolute offset, the codecs keep no
+ * state, channel reads are serialized on the channel and the posting
+ * cache locks itself.
+ *
+ * An index that has been appended to, or built with -Dindex.shards=N, is
+ * made of several segments. Each answers the query on its own range of
+ * doc ids, all of them at once on a pool of threads, and their sorted
+ * answers are merged, so a query over N shards can keep N cores busy.
+ */
+public class QueryEngine {
+
+	// Segments of the index, oldest first
+	private final List<Segment> segments = new ArrayList<Segment>();
+	// Threads the segments are queried on, or null to query them in turn
+	private final ExecutorService pool;
+	// Decoded posting lists of recently queried terms, or null
+	private final PostingCache cache;
+	// Time spent and postings read per query phase
+	private final Metrics metrics = new Metrics();
+
+	/**
+	 * @param index     codec the index was written with
+	 * @param inputdir  index directory, holding its segments
+	 * @param useMmap   whether to memory-map the posting files
+	 * @param cacheBytes  budget of the posting cache, 0 for none
+	 * @param pinCount  number of highest-df terms to keep decoded for good
+	 * @param numThreads  number of segments queried at once
+	 */
+	public QueryEngine(BaseIndex index, File inputdir, boolean useMmap,
+			long cacheBytes, int pinCount, int numThreads) throws IOException {
+		Metrics.Timer load = metrics.begin("load");
+		metrics.label("codec", Lexicon.codecName(index));
+
+		this.cache = (cacheBytes > 0 || pinCount > 0) ? new PostingCache(cacheBytes) : null;
+		for (String name : Segment.list(inputdir)) {
+			segments.add(new Segment(index, inputdir, name, segments.size(),
+					useMmap, cache, metrics));
+		}
+		metrics.add("segments", segments.size());
+
+		/* Daemon threads, so that a query failing in main cannot hang the JVM */
+		int poolSize = Math.min(numThreads, segments.size());
+		this.pool = (poolSize <= 1) ? null : Executors.newFixedThreadPool(poolSize,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, "segment-query");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		/* Posting cache, with the most frequent terms pinned up front */
+		for (int termId : topTermsByDocFreq(pinCount)) {
+			for (Segment segment : segments) {
+				segment.pin(termId);
+			}
+		}
+		load.end();
+	}
+
+	/**
+	 * Instantiates the codec named on the command line, e.g. "VB".
+	 */
+	public static BaseIndex createIndex(String method) {
+		String className = "cs276.assignments." + method + "Index";
+		try {
+			Class<?> indexClass = Class.forName(className);
+			return (BaseIndex) indexClass.newInstance();
+		} catch (Exception e) {
+			System.err
+					.println("Index method must be \"Basic\", \"VB\", \"Gamma\" or \"PFor\"");
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Answers one line holding a BooleanQuery; a line of plain terms is
+	 * implicitly ANDed. Returns the matching doc names in lexicographic
+	 * order, or an empty list if nothing matches. Throws
+	 * IllegalArgumentException if the line does not parse.
+	 */
+	public List<String> query(String line) throws IOException {
+		metrics.add("queries", 1);
+		final BooleanQuery query = BooleanQuery.parse(line);
+
+		/* Plain conjunctions take the tuned intersection path */
+		final String[] conjunction = query.getConjunction();
+
+		List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+		for (final Segment segment : segments) {
+			tasks.add(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws IOException {
+					return matchingNames(segment, query, conjunction);
+				}
+			});
+		}
+		List<List<String>> answers = fanOut(tasks);
+
+		/*
+		 * Doc names are unique over the segments, so the sorted answers
+		 * only need merging; the sort finds them as its initial runs
+		 * */
+		long start = System.nanoTime();
+		List<String> docNames = new ArrayList<String>();
+		for (List<String> answer : answers) {
+			if (answer == null) {
+				return new ArrayList<String>();
+			}
+			docNames.addAll(answer);
+		}
+		Collections.sort(docNames);
+		metrics.time("merge", start);
+		return docNames;
+	}
+
+	/*
+	 * Returns the sorted names of the docs of segment that match query,
+	 * or null if a posting list cannot be read
+	 * */
+	private List<String> matchingNames(Segment segment, BooleanQuery query,
+			String[] conjunction) throws IOException {
+		IntList finalDocIdList = (conjunction != null)
+				? segment.and(conjunction)
+				: segment.query(query);
+		if (finalDocIdList == null) {
+			return null;
+		}
+		metrics.add("results", finalDocIdList.size());
+
+		long start = System.nanoTime();
+		Lexicon lexicon = segment.getLexicon();
+		List<String> docNames = new ArrayList<String>(finalDocIdList.size());
+		for (int i = 0; i < finalDocIdList.size(); i++) {
+			docNames.add(lexicon.getDocName(finalDocIdList.get(i)));
+		}
+		Collections.sort(docNames);
+		metrics.time("names", start);
+		return docNames;
+	}
+
+	/**
+	 * Answers one line of terms as a RankedQuery. Returns the names of the
+	 * k documents with the highest BM25 scores, best first, or an empty
+	 * list if no document holds any of the terms. Scores use the document
+	 * count, frequencies and average length of the whole index, so they do
+	 * not depend on how it is split into segments. Every segment collects
+	 * its own top k at once, and those are merged in segment order. Throws
+	 * IllegalArgumentException if the index has no scores.
+	 */
+	public List<String> rank(String line, final int k) throws IOException {
+		metrics.add("queries", 1);
+		long start = System.nanoTime();
+		long docCount = 0;
+		long totalLength = 0;
+		for (Segment segment : segments) {
+			Lexicon lexicon = segment.getLexicon();
+			if (!lexicon.hasScores()) {
+				throw new IllegalArgumentException(
+						"Ranked queries need an index built with -Dindex.scores=true");
+			}
+			docCount += lexicon.getDocCount();
+			totalLength += lexicon.getTotalDocLength();
+		}
+		final double avgDocLength = Bm25.avgDocLength(totalLength, docCount);
+
+		/* Term ids are global, document frequencies add up over the segments */
+		String[] terms = RankedQuery.parse(line).getTerms();
+		final int[] termIds = new int[terms.length];
+		final double[] idfs = new double[terms.length];
+		for (int t = 0; t < terms.length; t++) {
+			termIds[t] = -1;
+			long docFreq = 0;
+			for (Segment segment : segments) {
+				Lexicon lexicon = segment.getLexicon();
+				int termId = lexicon.getTermId(terms[t]);
+				if (termId >= 0) {
+					termIds[t] = termId;
+					docFreq += lexicon.getDocFreq(termId);
+				}
+			}
+			idfs[t] = Bm25.idf(docFreq, docCount);
+		}
+		metrics.time("lookup", start);
+
+		start = System.nanoTime();
+		List<Callable<RankedQuery.TopDocs>> tasks = new ArrayList<Callable<RankedQuery.TopDocs>>();
+		for (final Segment segment : segments) {
+			tasks.add(new Callable<RankedQuery.TopDocs>() {
+				@Override
+				public RankedQuery.TopDocs call() throws IOException {
+					return collect(segment, termIds, idfs, avgDocLength, k);
+				}
+			});
+		}
+		RankedQuery.TopDocs top = new RankedQuery.TopDocs(k);
+		for (RankedQuery.TopDocs segmentTop : fanOut(tasks)) {
+			top.addAll(segmentTop);
+		}
+		metrics.time("rank", start);
+
+		start = System.nanoTime();
+		List<String> docNames = new ArrayList<String>();
+		for (int docId : top.docIds()) {
+			for (Segment segment : segments) {
+				if (segment.getLexicon().hasDoc(docId)) {
+					docNames.add(segment.getLexicon().getDocName(docId));
+					break;
+				}
+			}
+		}
+		metrics.add("results", docNames.size());
+		metrics.time("names", start);
+		return docNames;
+	}
+
+	/*
+	 * Returns the top k docs of segment for the terms of termIds, -1 for
+	 * a term of no segment
+	 * */
+	private RankedQuery.TopDocs collect(Segment segment, int[] termIds, double[] idfs,
+			double avgDocLength, int k) throws IOException {
+		List<TermScorer> scorers = new ArrayList<TermScorer>();
+		for (int t = 0; t < termIds.length; t++) {
+			TermScorer scorer = (termIds[t] < 0) ? null
+					: segment.scorer(termIds[t], idfs[t], avgDocLength);
+			if (scorer != null) {
+				scorers.add(scorer);
+				metrics.add("rank.postings", scorer.cost());
+			}
+		}
+		RankedQuery.TopDocs top = new RankedQuery.TopDocs(k);
+		int scored = RankedQuery.collect(scorers.toArray(new TermScorer[scorers.size()]), top);
+		metrics.add("rank.scored", scored);
+		return top;
+	}
+
+	/*
+	 * Runs tasks, one per segment, on the pool if there is one, and
+	 * returns their results in segment order
+	 * */
+	private <T> List<T> fanOut(List<Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (pool == null) {
+			for (Callable<T> task : tasks) {
+				try {
+					results.add(task.call());
+				} catch (Exception e) {
+					throw rethrow(e);
+				}
+			}
+			return results;
+		}
+
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		try {
+			for (Callable<T> task : tasks) {
+				futures.add(pool.submit(task));
+			}
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while querying", e);
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} finally {
+			/* Not interrupting: that would close the channels of the segments */
+			for (Future<T> future : futures) {
+				future.cancel(false);
+			}
+		}
+		return results;
+	}
+
+	private static IOException rethrow(Throwable cause) {
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		throw new RuntimeException(cause);
+	}
+
+	/**
+	 * Returns the posting cache, or null if caching is off.
+	 */
+	public PostingCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the timers and counters of this engine. Time spent reading
+	 * posting lists is part of "intersect" and is also reported as "read".
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	public void close() throws IOException {
+		if (pool != null) {
+			pool.shutdown();
+		}
+		for (Segment segment : segments) {
+			segment.close();
+		}
+	}
+
+	/*
+	 * Returns up to count termIds with the highest document frequency
+	 * over all segments.
+	 * */
+	private int[] topTermsByDocFreq(int count) {
+		if (count <= 0) {
+			return new int[0];
+		}
+		int termIdLimit = 0;
+		for (Segment segment : segments) {
+			termIdLimit = Math.max(termIdLimit, segment.getLexicon().getTermIdLimit());
+		}
+		long[] docFreqs = new long[termIdLimit];
+		for (Segment segment : segments) {
+			Lexicon lexicon = segment.getLexicon();
+			for (int termId = 0; termId < lexicon.getTermIdLimit(); termId++) {
+				docFreqs[termId] += lexicon.getDocFreq(termId);
+			}
+		}
+
+		/* Min-heap of (df, termId) packed into longs */
+		PriorityQueue<Long> top = new PriorityQueue<Long>();
+		for (int termId = 0; termId < termIdLimit; termId++) {
+			if (docFreqs[termId] == 0) {
+				continue;
+			}
+			long entry = (docFreqs[termId] << 32) | termId;
+			if (top.size() < count) {
+				top.add(entry);
+			} else if (entry > top.peek()) {
+				top.poll();
+				top.add(entry);
+			}
+		}
+		int[] termIds = new int[top.size()];
+		for (int i = 0; i < termIds.length; i++) {
+			termIds[i] = (int) (long) top.poll();
+		}
+		return termIds;
+	}
+}
@@ -0,0 +1,199 @@
+package cs276.assignments;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Loads an index once and answers queries over a local TCP socket, so the
+ * JVM start-up and dictionary loading are paid once instead of per batch.
+ *
+ * The protocol is line based: the client sends one query per line, in the
+ * syntax of BooleanQuery, and the server answers with the matching doc
+ * names, one per line, or with "no results found", also for a query that
+ * does not parse, followed by an empty line. With -Dquery.topk=K every
+ * line is a RankedQuery instead, answered with its best K doc names, best
+ * first. A connection is closed by
+ * closing its output. Stopping the process (e.g. SIGTERM) stops accepting,
+ * lets in-flight queries finish and then closes every connection.
+ *
+ * The engine's metrics are published over JMX as cs276:type=QueryServer,
+ * for jconsole or any JMX collector to poll.
+ */
+public class QueryServer {
+
+	// Whether to memory-map the index file
+	private static boolean useMmap = Boolean.parseBoolean(System.getProperty("query.mmap", "true"));
+	// Megabytes of decoded posting lists to keep between queries
+	private static long cacheBytes = Long.getLong("query.cache", 64) << 20;
+	// Number of highest-df terms decoded at startup and never evicted
+	private static int pinCount = Integer.getInteger("query.pin", 0);
+	// Number of best documents to return by BM25, or 0 for boolean queries
+	private static int topK = Math.max(0, Integer.getInteger("query.topk", 0));
+	// Number of segments of the index queried at once
+	private static int queryThreads = Math.max(1, Integer.getInteger("query.threads",
+			Runtime.getRuntime().availableProcessors()));
+	// Number of connections served at once
+	private static int numThreads = Math.max(1, Integer.getInteger("server.threads",
+			Runtime.getRuntime().availableProcessors()));
+	// Seconds to wait for in-flight queries on shutdown
+	private static final int SHUTDOWN_GRACE_SECONDS = 10;
+
+	// Open client connections, closed on shutdown
+	private static Set<Socket> clients = Collections.synchronizedSet(new HashSet<Socket>());
+
+	public static void main(String[] args) throws IOException {
+		/* Parse command line */
+		if (args.length != 3) {
+			System.err.println("Usage: java [-Dquery.mmap=false] [-Dquery.cache=MB] [-Dquery.pin=N] "
+					+ "[-Dquery.topk=K] [-Dquery.threads=N] [-Dserver.threads=N] QueryServer [Basic|VB|Gamma|PFor] index_dir port");
+			return;
+		}
+
+		/* Get index */
+		BaseIndex index = QueryEngine.createIndex(args[0]);
+
+		/* Get index directory */
+		String input = args[1];
+		File inputdir = new File(input);
+		if (!inputdir.exists() || !inputdir.isDirectory()) {
+			System.err.println("Invalid index directory: " + input);
+			return;
+		}
+
+		final QueryEngine engine = new QueryEngine(index, inputdir, useMmap,
+				cacheBytes, pinCount, queryThreads);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(engine.getMetrics(),
+					new ObjectName("cs276:type=QueryServer"));
+		} catch (JMException e) {
+			System.err.println("Could not register metrics MBean: " + e);
+		}
+
+		final ServerSocket server = new ServerSocket(Integer.parseInt(args[2]), 50,
+				InetAddress.getLoopbackAddress());
+		final ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				shutdown(server, pool, engine);
+			}
+		});
+		System.err.println("Serving " + input + " on " + server.getLocalSocketAddress());
+
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (SocketException e) {
+				/* The server socket was closed by shutdown */
+				break;
+			}
+			clients.add(socket);
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					serve(socket, engine);
+				}
+			});
+		}
+	}
+
+	/*
+	 * Answers queries from one client until it closes its output
+	 * */
+	private static void serve(Socket socket, QueryEngine engine) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), "UTF-8"));
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					socket.getOutputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				List<String> docNames;
+				try {
+					docNames = (topK > 0) ? engine.rank(line, topK) : engine.query(line);
+				} catch (IllegalArgumentException e) {
+					docNames = Collections.emptyList();
+				}
+				if (docNames.isEmpty()) {
+					out.write("no results found\n");
+				}
+				for (String docName : docNames) {
+					out.write(docName);
+					out.write('\n');
+				}
+				out.write('\n');
+				out.flush();
+			}
+		} catch (IOException e) {
+			/* The client went away, or shutdown closed the socket */
+		} finally {
+			clients.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/*
+	 * Stops accepting and stops reading new queries; queries already
+	 * being answered get SHUTDOWN_GRACE_SECONDS to finish before the
+	 * remaining connections are dropped and the index is closed.
+	 * */
+	private static void shutdown(ServerSocket server, ExecutorService pool, QueryEngine engine) {
+		try {
+			server.close();
+		} catch (IOException e) {}
+		pool.shutdown();
+
+		synchronized (clients) {
+			for (Socket socket : clients) {
+				try {
+					socket.shutdownInput();
+				} catch (IOException e) {}
+			}
+		}
+
+		try {
+			if (!pool.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+				synchronized (clients) {
+					for (Socket socket : clients) {
+						try {
+							socket.close();
+						} catch (IOException e) {}
+					}
+				}
+				pool.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+			}
+			if (engine.getCache() != null) {
+				System.err.println(engine.getCache());
+			}
+			engine.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			System.err.println("Error closing index: " + e);
+		}
+	}
+}
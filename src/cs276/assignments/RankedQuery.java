@@ -0,0 +1,235 @@
+package cs276.assignments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A ranked query: the distinct terms of a line, of which documents need
+ * only hold some, scored by the sum of their BM25 scores. Only the best k
+ * documents are kept, best first, a tie going to the lower docId.
+ *
+ * Documents are collected by WAND. Every term has a bound on its score;
+ * the cursors are kept sorted by docId, and the first document whose
+ * preceding bounds add up to more than the k-th best score so far, the
+ * pivot, is the next one that can enter the top k. Every cursor before
+ * it jumps straight to it, so once the top k fill up with good scores
+ * most postings of the common terms are skipped without being scored.
+ */
+public class RankedQuery {
+
+	private final String[] terms;
+
+	private RankedQuery(String[] terms) {
+		this.terms = terms;
+	}
+
+	/**
+	 * Parses one query line into its distinct terms; an empty line
+	 * matches nothing.
+	 */
+	public static RankedQuery parse(String line) {
+		Set<String> terms = new LinkedHashSet<String>();
+		for (String term : line.trim().split("\\s+")) {
+			if (term.length() > 0) {
+				terms.add(term);
+			}
+		}
+		return new RankedQuery(terms.toArray(new String[terms.size()]));
+	}
+
+	public String[] getTerms() {
+		return terms;
+	}
+
+	/**
+	 * Offers every document of scorers that can enter top to it. Returns
+	 * the number of documents scored.
+	 */
+	public static int collect(TermScorer[] scorers, TopDocs top) {
+		TermScorer[] sorted = scorers.clone();
+		int n = sorted.length;
+		for (int i = 0; i < n; i++) {
+			sorted[i].next();
+		}
+
+		int scored = 0;
+		while (true) {
+			/* Insertion sort by docId; the cursors barely move between rounds */
+			for (int i = 1; i < n; i++) {
+				TermScorer scorer = sorted[i];
+				int j = i;
+				for (; j > 0 && sorted[j - 1].docId() > scorer.docId(); j--) {
+					sorted[j] = sorted[j - 1];
+				}
+				sorted[j] = scorer;
+			}
+			while (n > 0 && sorted[n - 1].docId() == PostingCursor.NO_MORE_DOCS) {
+				n--;
+			}
+
+			/* The pivot: the first cursor at which the bounds beat the threshold */
+			double threshold = top.threshold();
+			double bound = 0;
+			int pivot = -1;
+			for (int i = 0; i < n; i++) {
+				bound += sorted[i].maxScore();
+				if (bound > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot < 0) {
+				return scored;
+			}
+
+			int pivotDoc = sorted[pivot].docId();
+			if (sorted[0].docId() == pivotDoc) {
+				double score = 0;
+				int i = 0;
+				for (; i < n && sorted[i].docId() == pivotDoc; i++) {
+					score += sorted[i].score();
+				}
+				top.offer(pivotDoc, score);
+				scored++;
+				for (int j = 0; j < i; j++) {
+					sorted[j].next();
+				}
+			} else {
+				for (int i = 0; i < pivot; i++) {
+					sorted[i].advance(pivotDoc);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The best k (docId, score) pairs offered, in a min-heap on score
+	 * whose root is the entry the next better one replaces. Documents
+	 * must be offered in increasing docId order, so that an equal score
+	 * never displaces an earlier document.
+	 */
+	public static class TopDocs {
+		private final int k;
+		private final int[] docIds;
+		private final double[] scores;
+		private int size = 0;
+
+		public TopDocs(int k) {
+			this.k = k;
+			this.docIds = new int[k];
+			this.scores = new double[k];
+		}
+
+		/**
+		 * Returns the score a document must beat to enter, 0 until k
+		 * documents are in; every BM25 score is positive.
+		 */
+		public double threshold() {
+			return (size < k) ? 0 : scores[0];
+		}
+
+		public void offer(int docId, double score) {
+			if (size < k) {
+				docIds[size] = docId;
+				scores[size] = score;
+				siftUp(size++);
+			} else if (score > scores[0]) {
+				docIds[0] = docId;
+				scores[0] = score;
+				siftDown(0);
+			}
+		}
+
+		/**
+		 * Offers every entry of other, in docId order. Its documents must
+		 * all come after those offered so far, as those of a later segment
+		 * do, so that the top k of several segments merge into theirs.
+		 */
+		public void addAll(final TopDocs other) {
+			Integer[] order = new Integer[other.size];
+			for (int i = 0; i < other.size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return other.docIds[a] - other.docIds[b];
+				}
+			});
+			for (int i : order) {
+				offer(other.docIds[i], other.scores[i]);
+			}
+		}
+
+		/**
+		 * Returns the docIds kept, best first.
+		 */
+		public List<Integer> docIds() {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					if (worse(scores[a], docIds[a], scores[b], docIds[b])) {
+						return 1;
+					}
+					return worse(scores[b], docIds[b], scores[a], docIds[a]) ? -1 : 0;
+				}
+			});
+			List<Integer> best = new ArrayList<Integer>(size);
+			for (int i : order) {
+				best.add(docIds[i]);
+			}
+			return best;
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!worse(scores[i], docIds[i], scores[parent], docIds[parent])) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size
+						&& worse(scores[child + 1], docIds[child + 1], scores[child], docIds[child])) {
+					child++;
+				}
+				if (!worse(scores[child], docIds[child], scores[i], docIds[i])) {
+					break;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void swap(int i, int j) {
+			int docId = docIds[i];
+			docIds[i] = docIds[j];
+			docIds[j] = docId;
+			double score = scores[i];
+			scores[i] = scores[j];
+			scores[j] = score;
+		}
+
+		/* A lower score is worse, and of equal scores the later document */
+		private static boolean worse(double score, int docId, double otherScore, int otherDocId) {
+			return score < otherScore || (score == otherScore && docId > otherDocId);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import cs276.util.IntList;
+import cs276.util.RoaringBitmap;
+
+/**
+ * Stores dense posting lists as Roaring bitmaps and leaves every other
+ * list to the wrapped index. Each list starts with one kind byte:
+ *
+ *   SPARSE  the list as written by the wrapped index
+ *   DENSE   int termId, int docFreq, int numBytes, RoaringBitmap
+ *
+ * A list is dense when it has at least MIN_DENSE_DOC_FREQ postings and
+ * covers at least one docId in DENSITY_RATIO of the range it spans. ANDs
+ * of two dense lists then run a machine word at a time over their
+ * bitmap containers, and a short list probes a dense one container by
+ * container instead of decoding it.
+ */
+public class RoaringIndex implements BaseIndex {
+
+	public static final byte SPARSE = 0;
+	public static final byte DENSE = 1;
+
+	private static final int MIN_DENSE_DOC_FREQ = 64;
+	private static final int DENSITY_RATIO = 16;
+
+	private final BaseIndex index;
+
+	public RoaringIndex(BaseIndex index) {
+		this.index = index;
+	}
+
+	private static boolean isDense(IntList docList) {
+		int docFreq = docList.size();
+		if (docFreq < MIN_DENSE_DOC_FREQ) {
+			return false;
+		}
+		long span = (long) docList.last() - docList.get(0) + 1;
+		return (long) docFreq * DENSITY_RATIO >= span;
+	}
+
+	/**
+	 * Returns true if the list at the position of buf is a bitmap.
+	 */
+	public static boolean isDense(ByteBuffer buf) {
+		return buf.get(buf.position()) == DENSE;
+	}
+
+	/**
+	 * Views the dense list at the position of buf without decoding it.
+	 */
+	public static RoaringBitmap openBitmap(ByteBuffer buf) {
+		return new RoaringBitmap(buf, buf.position() + 13);
+	}
+
+	@Override
+	public PostingList readPosting(ReadableByteChannel fc) {
+		try {
+			ByteBuffer kind = ByteBuffer.allocate(1);
+			if (fc.read(kind) == -1) {
+				System.err.println("Roaring: readPosting read no kind byte from fc");
+				return null;
+			}
+			if (kind.get(0) == SPARSE) {
+				return index.readPosting(fc);
+			}
+
+			ByteBuffer bb = ByteBuffer.allocate(12);
+			int bytesRead = fc.read(bb);
+			if (bytesRead == -1) {
+				System.err.println("Roaring: readPosting read fewer than 12 bytes from fc");
+				return null;
+			}
+			int numBytes = bb.getInt(8);
+
+			ByteBuffer docBuf = ByteBuffer.allocate(13 + numBytes);
+			docBuf.put(DENSE);
+			bb.flip();
+			docBuf.put(bb);
+			bytesRead = fc.read(docBuf);
+			if (bytesRead == -1) {
+				System.err.println("Roaring: readPosting read fewer than " + numBytes + " bytes from fc");
+				return null;
+			}
+			docBuf.flip();
+			return readPosting(docBuf);
+		} catch (IOException e) {
+			System.err.println("Roaring ReadPosting Error: " + e.toString());
+			return null;
+		}
+	}
+
+	@Override
+	public PostingList readPosting(ByteBuffer buf) {
+		if (buf.get() == SPARSE) {
+			return index.readPosting(buf);
+		}
+		int termId = buf.getInt();
+		int docFreq = buf.getInt();
+		int numBytes = buf.getInt();
+		int start = buf.position();
+
+		int[] list = new int[docFreq];
+		new RoaringBitmap(buf, start).toArray(list);
+
+		buf.position(start + numBytes);
+		return new PostingList(termId, new IntList(list, docFreq));
+	}
+
+	@Override
+	public void writePosting(WritableByteChannel fc, PostingList p) {
+		try {
+			IntList docList = p.getList();
+			if (!isDense(docList)) {
+				ByteBuffer kind = ByteBuffer.allocate(1);
+				kind.put(SPARSE);
+				kind.flip();
+				fc.write(kind);
+				index.writePosting(fc, p);
+				return;
+			}
+
+			byte[] bitmap = RoaringBitmap.encode(docList.array(), 0, docList.size());
+			ByteBuffer bb = ByteBuffer.allocate(13 + bitmap.length);
+			bb.put(DENSE);
+			bb.putInt(p.getTermId());
+			bb.putInt(docList.size());
+			bb.putInt(bitmap.length);
+			bb.put(bitmap);
+			bb.flip();
+			while (bb.hasRemaining()) {
+				fc.write(bb);
+			}
+		} catch (IOException e) {
+			System.err.println("Roaring WritePosting Error: " + e.toString());
+		}
+	}
+
+	@Override
+	public PostingCursor openCursor(ByteBuffer buf) {
+		if (buf.get() == SPARSE) {
+			return index.openCursor(buf);
+		}
+		int termId = buf.getInt();
+		int docFreq = buf.getInt();
+		int numBytes = buf.getInt();
+		RoaringBitmap bitmap = new RoaringBitmap(buf, buf.position());
+		buf.position(buf.position() + numBytes);
+		return new DenseCursor(termId, docFreq, bitmap.cursor());
+	}
+
+	private static class DenseCursor implements PostingCursor {
+		private final int termId;
+		private final int docFreq;
+		private final RoaringBitmap.Cursor cursor;
+		private int doc = -1;
+
+		DenseCursor(int termId, int docFreq, RoaringBitmap.Cursor cursor) {
+			this.termId = termId;
+			this.docFreq = docFreq;
+			this.cursor = cursor;
+		}
+
+		@Override
+		public int termId() {
+			return termId;
+		}
+
+		@Override
+		public int docId() {
+			return doc;
+		}
+
+		@Override
+		public int next() {
+			if (doc == NO_MORE_DOCS) {
+				return doc;
+			}
+			int next = cursor.next();
+			return doc = (next < 0) ? NO_MORE_DOCS : next;
+		}
+
+		@Override
+		public int advance(int target) {
+			if (doc >= target) {
+				return doc;
+			}
+			int next = cursor.advance(target);
+			return doc = (next < 0) ? NO_MORE_DOCS : next;
+		}
+
+		@Override
+		public int cost() {
+			return docFreq;
+		}
+	}
+}
@@ -0,0 +1,733 @@
+package cs276.assignments;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cs276.util.IntList;
+import cs276.util.MappedFile;
+import cs276.util.Metrics;
+import cs276.util.RoaringBitmap;
+
+/**
+ * One independently written part of an index: a posting file NAME.index
+ * and the lexicon NAME.lex of the terms and documents it holds. A full
+ * build writes the single segment "corpus"; every append adds a segment
+ * holding only the new documents, and merges replace runs of adjacent
+ * segments with one. Term and doc ids are global, and each segment covers
+ * a range of doc ids above those of the segments before it, so the
+ * answers of the segments to a query are disjoint and already in segment
+ * order.
+ *
+ * An index built with positions also has NAME.positions, read a block of
+ * documents at a time to answer phrases, and one built with scores has
+ * NAME.tfs, the term frequencies that ranked queries score with.
+ *
+ * The live segments are listed, oldest first, in the file "segments" of
+ * the index directory. An index without that file is just "corpus".
+ */
+public class Segment {
+
+	public static final String BASE = "corpus";
+	private static final String LIST_FILE = "segments";
+
+	// Length ratio above which intersections gallop instead of merging
+	private static final int GALLOP_RATIO = 16;
+	// Set in the cache key of the frequencies of a term
+	private static final long FREQUENCIES_KEY = 1L << 62;
+
+	// Position of this segment in the index, part of its cache keys
+	private final int ordinal;
+	// Term -> term id, term id -> (position in index file, document
+	// frequency) and doc id -> doc name dictionaries of this segment
+	private final Lexicon lexicon;
+	// Index
+	private final BaseIndex index;
+	// Whether the lists that are not bitmaps carry skip pointers
+	private final boolean hasSkips;
+	// Whether dense lists are stored as bitmaps
+	private final boolean hasBitmaps;
+	// Index file
+	private final RandomAccessFile indexFile;
+	// Memory map of the index file, or null to read through the channel
+	private final MappedFile mappedIndex;
+	// Codec of positions and frequencies
+	private final BaseIndex plainCodec;
+	// Positions file and its map, or null
+	private final RandomAccessFile positionsFile;
+	private final MappedFile mappedPositions;
+	// Frequencies file and its map, or null
+	private final RandomAccessFile frequenciesFile;
+	private final MappedFile mappedFrequencies;
+	// Decoded posting lists shared by all segments, or null
+	private final PostingCache cache;
+	// Query metrics of the engine
+	private final Metrics metrics;
+
+	/**
+	 * @param index    codec the index was written with
+	 * @param dir      index directory
+	 * @param name     segment name, e.g. "corpus"
+	 * @param ordinal  position of the segment in the index
+	 * @param useMmap  whether to memory-map the posting file
+	 * @param cache    posting cache shared by the segments, or null
+	 * @param metrics  where to count reads
+	 */
+	public Segment(BaseIndex index, File dir, String name, int ordinal, boolean useMmap,
+			PostingCache cache, Metrics metrics) throws IOException {
+		this.ordinal = ordinal;
+		this.lexicon = Lexicon.open(lexiconFile(dir, name));
+		if (!lexicon.getCodec().equals(Lexicon.codecName(index))) {
+			throw new IOException("Segment " + name + " was written with " + lexicon.getCodec()
+					+ ", not " + Lexicon.codecName(index));
+		}
+		BaseIndex sparseIndex = lexicon.hasSkips() ? new SkipIndex((BlockCodec) index) : index;
+		this.hasSkips = lexicon.hasSkips();
+		this.hasBitmaps = lexicon.hasBitmaps();
+		this.index = hasBitmaps ? new RoaringIndex(sparseIndex) : sparseIndex;
+		this.cache = cache;
+		this.metrics = metrics;
+
+		/* Index file */
+		this.indexFile = new RandomAccessFile(indexFile(dir, name), "r");
+
+		/* Map the index in segments that each start on a posting list */
+		this.mappedIndex = useMmap
+				? new MappedFile(indexFile.getChannel(), lexicon.getPostingOffsets())
+				: null;
+
+		/* Positions and frequencies are written by the codec alone, without skips or bitmaps */
+		this.plainCodec = index;
+		if (lexicon.hasPositions()) {
+			this.positionsFile = new RandomAccessFile(positionsFile(dir, name), "r");
+			this.mappedPositions = useMmap
+					? new MappedFile(positionsFile.getChannel(), lexicon.getPositionsOffsets())
+					: null;
+		} else {
+			this.positionsFile = null;
+			this.mappedPositions = null;
+		}
+		if (lexicon.hasScores()) {
+			this.frequenciesFile = new RandomAccessFile(frequenciesFile(dir, name), "r");
+			this.mappedFrequencies = useMmap
+					? new MappedFile(frequenciesFile.getChannel(), lexicon.getFrequenciesOffsets())
+					: null;
+		} else {
+			this.frequenciesFile = null;
+			this.mappedFrequencies = null;
+		}
+	}
+
+	public static File indexFile(File dir, String name) {
+		return new File(dir, name + ".index");
+	}
+
+	public static File lexiconFile(File dir, String name) {
+		return new File(dir, name + ".lex");
+	}
+
+	public static File positionsFile(File dir, String name) {
+		return new File(dir, name + ".positions");
+	}
+
+	public static File frequenciesFile(File dir, String name) {
+		return new File(dir, name + ".tfs");
+	}
+
+	/**
+	 * Returns the names of the live segments of the index in dir, oldest
+	 * first.
+	 */
+	public static List<String> list(File dir) throws IOException {
+		List<String> names = new ArrayList<String>();
+		File listFile = new File(dir, LIST_FILE);
+		if (!listFile.exists()) {
+			names.add(BASE);
+			return names;
+		}
+		BufferedReader reader = new BufferedReader(new FileReader(listFile));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					names.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return names;
+	}
+
+	/**
+	 * Replaces the list of live segments in dir. The list is written to
+	 * a temporary file and renamed over the old one, so a reader sees
+	 * either list whole.
+	 */
+	public static void writeList(File dir, List<String> names) throws IOException {
+		File tmp = new File(dir, LIST_FILE + ".tmp");
+		BufferedWriter writer = new BufferedWriter(new FileWriter(tmp));
+		try {
+			for (String name : names) {
+				writer.write(name + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		if (!tmp.renameTo(new File(dir, LIST_FILE))) {
+			throw new IOException("Could not replace " + LIST_FILE + " in " + dir);
+		}
+	}
+
+	public Lexicon getLexicon() {
+		return lexicon;
+	}
+
+	public void close() throws IOException {
+		indexFile.close();
+		if (positionsFile != null) {
+			positionsFile.close();
+		}
+		if (frequenciesFile != null) {
+			frequenciesFile.close();
+		}
+	}
+
+	/**
+	 * Returns the docIds in this segment containing every term, or an
+	 * empty list. Returns null if a posting list cannot be read.
+	 */
+	public IntList and(String[] terms) throws IOException {
+		long start = System.nanoTime();
+
+		/* Look up every term; one unknown term empties the AND */
+		IntList termIds = new IntList(terms.length);
+		for (String term : terms) {
+			int termId = lexicon.getTermId(term);
+			if (termId < 0 || lexicon.getPostingOffset(termId) < 0) {
+				metrics.time("lookup", start);
+				return new IntList(0);
+			}
+			termIds.add(termId);
+		}
+		metrics.time("lookup", start);
+
+		start = System.nanoTime();
+		IntList docIds = intersectAll(termIds);
+		metrics.time("intersect", start);
+		return docIds;
+	}
+
+	/**
+	 * Returns the docIds in this segment matching query, which is planned
+	 * and walked document at a time. Returns an empty list for no match.
+	 */
+	public IntList query(BooleanQuery query) throws IOException {
+		long start = System.nanoTime();
+		PostingCursor cursor = query.open(this);
+		metrics.time("lookup", start);
+
+		IntList docIds = new IntList();
+		if (cursor == null) {
+			return docIds;
+		}
+		start = System.nanoTime();
+		for (int docId = cursor.next(); docId != PostingCursor.NO_MORE_DOCS; docId = cursor.next()) {
+			docIds.add(docId);
+		}
+		metrics.time("evaluate", start);
+		return docIds;
+	}
+
+	/**
+	 * Returns the docIds in this segment holding terms next to each other
+	 * in that order, or an empty list. The docIds holding every term are
+	 * found first; positions are then read only for those, one block of
+	 * Positions.BLOCK_DOCS documents of each term at a time. Throws
+	 * IllegalArgumentException if the index has no positions.
+	 */
+	public IntList phrase(String[] terms) throws IOException {
+		if (!lexicon.hasPositions()) {
+			throw new IllegalArgumentException(
+					"Phrase queries need an index built with -Dindex.positions=true");
+		}
+		IntList candidates = and(terms);
+		if (candidates == null || candidates.isEmpty() || terms.length == 1) {
+			return (candidates == null) ? new IntList(0) : candidates;
+		}
+
+		long start = System.nanoTime();
+		PhraseTerm[] phraseTerms = new PhraseTerm[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			int termId = lexicon.getTermId(terms[i]);
+			IntList docIds = getPostings(termId);
+			if (docIds == null) {
+				return new IntList(0);
+			}
+			phraseTerms[i] = new PhraseTerm(termId, docIds);
+		}
+
+		IntList matches = new IntList();
+		IntList starts = new IntList();
+		IntList next = new IntList();
+		for (int c = 0; c < candidates.size(); c++) {
+			int docId = candidates.get(c);
+
+			/* Offsets at which the phrase may start, narrowed term by term */
+			starts.clear();
+			PhraseTerm first = phraseTerms[0];
+			if (!first.seek(docId)) {
+				return new IntList(0);
+			}
+			for (int i = first.start(); i < first.end(); i++) {
+				starts.add(first.position(i));
+			}
+			for (int t = 1; t < phraseTerms.length && !starts.isEmpty(); t++) {
+				PhraseTerm term = phraseTerms[t];
+				if (!term.seek(docId)) {
+					return new IntList(0);
+				}
+				next.clear();
+				int i = term.start();
+				for (int s = 0; s < starts.size(); s++) {
+					int wanted = starts.get(s) + t;
+					while (i < term.end() && term.position(i) < wanted) {
+						i++;
+					}
+					if (i == term.end()) {
+						break;
+					}
+					if (term.position(i) == wanted) {
+						next.add(starts.get(s));
+					}
+				}
+				IntList swap = starts;
+				starts = next;
+				next = swap;
+			}
+			if (!starts.isEmpty()) {
+				matches.add(docId);
+			}
+		}
+		metrics.time("phrase", start);
+		return matches;
+	}
+
+	/*
+	 * The positions of one term of a phrase, walked through the candidates
+	 * in docId order. The rank of a candidate in the term's docId list
+	 * locates its block, which stays loaded until a candidate falls in
+	 * another one.
+	 * */
+	private class PhraseTerm {
+		private final int termId;
+		private final IntList docIds;
+		// Rank of the current candidate, and the block loaded, or -1
+		private int rank = 0;
+		private int loaded = -1;
+		private Positions block;
+
+		PhraseTerm(int termId, IntList docIds) {
+			this.termId = termId;
+			this.docIds = docIds;
+		}
+
+		/* Moves to docId, which must be in the list; false on read errors */
+		boolean seek(int docId) throws IOException {
+			int hi = docIds.size();
+			while (rank < hi) {
+				int mid = (rank + hi) >>> 1;
+				if (docIds.get(mid) < docId) {
+					rank = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			int wanted = rank / Positions.BLOCK_DOCS;
+			if (wanted != loaded) {
+				block = readPositionsBlock(termId, rank);
+				loaded = wanted;
+				metrics.add("phrase.blocks", 1);
+			}
+			return block != null;
+		}
+
+		int start() {
+			return block.start(rank % Positions.BLOCK_DOCS);
+		}
+
+		int end() {
+			return block.end(rank % Positions.BLOCK_DOCS);
+		}
+
+		int position(int i) {
+			return block.getPositions().get(i);
+		}
+	}
+
+	/*
+	 * Reads the block of the k-th document of termId's positions, in place
+	 * from the map or through the shared channel under its lock. Returns
+	 * null if it cannot be read.
+	 * */
+	private Positions readPositionsBlock(int termId, int k) throws IOException {
+		long pos = lexicon.getPositionsOffset(termId);
+		if (pos < 0) {
+			return null;
+		}
+		if (mappedPositions != null) {
+			ByteBuffer slice = mappedPositions.slice(pos);
+			return Positions.readBlock(plainCodec, slice, slice.position(), k);
+		}
+
+		FileChannel fc = positionsFile.getChannel();
+		synchronized (fc) {
+			ByteBuffer blockCount = ByteBuffer.allocate(8);
+			readFully(fc, blockCount, pos);
+			ByteBuffer header = ByteBuffer.allocate(Positions.headerBytes(blockCount.getInt(4)));
+			readFully(fc, header, pos);
+			int blockStart = Positions.blockStart(header, 0, k);
+			ByteBuffer block = ByteBuffer.allocate(Positions.blockEnd(header, 0, k) - blockStart);
+			readFully(fc, block, pos + blockStart);
+			return Positions.readBlock(plainCodec, block);
+		}
+	}
+
+	private static void readFully(FileChannel fc, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			if (fc.read(buf, pos + buf.position()) < 0) {
+				throw new IOException("Positions file ends early");
+			}
+		}
+		buf.flip();
+	}
+
+	/**
+	 * Opens a scorer on termId for a ranked query, under the idf of the
+	 * term and the average document length of the whole index, or returns
+	 * null if this segment does not have the term. Its bound is the best
+	 * score of the term in this segment, rescaled to those statistics.
+	 * Also returns null if the index has no scores.
+	 */
+	public TermScorer scorer(int termId, double idf, double avgDocLength) throws IOException {
+		if (termId < 0 || lexicon.getPostingOffset(termId) < 0) {
+			return null;
+		}
+		IntList docIds = getPostings(termId);
+		IntList tfs = (docIds == null) ? null : getFrequencies(termId);
+		if (tfs == null) {
+			return null;
+		}
+		double segmentIdf = Bm25.idf(lexicon.getDocFreq(termId), lexicon.getDocCount());
+		double segmentAvgDocLength = Bm25.avgDocLength(lexicon.getTotalDocLength(),
+				lexicon.getDocCount());
+		double bound = Bm25.bound(lexicon.getMaxScore(termId), segmentIdf, segmentAvgDocLength,
+				idf, avgDocLength);
+		return new TermScorer(termId, docIds, tfs, lexicon, idf, avgDocLength, bound);
+	}
+
+	/*
+	 * Returns the decoded frequencies of termId from the cache, under the
+	 * key of its postings with FREQUENCIES_KEY set, reading and caching
+	 * them on a miss. Returns null if they cannot be read.
+	 * */
+	private IntList getFrequencies(int termId) throws IOException {
+		long key = cacheKey(termId) | FREQUENCIES_KEY;
+		IntList tfs = (cache == null) ? null : cache.get(key);
+		if (tfs != null) {
+			return tfs;
+		}
+		long pos = lexicon.getFrequenciesOffset(termId);
+		if (pos < 0) {
+			return null;
+		}
+
+		long start = System.nanoTime();
+		if (mappedFrequencies != null) {
+			tfs = Frequencies.read(plainCodec, mappedFrequencies.slice(pos));
+		} else {
+			FileChannel fc = frequenciesFile.getChannel();
+			synchronized (fc) {
+				fc.position(pos);
+				tfs = Frequencies.read(plainCodec, fc);
+			}
+		}
+		metrics.time("read.tfs", start);
+		if (tfs != null && cache != null) {
+			cache.put(key, tfs);
+		}
+		return tfs;
+	}
+
+	/**
+	 * Opens a cursor on the posting list of termId, or returns null if
+	 * this segment does not have the term. Like intersect(), bitmaps and
+	 * lists with skip pointers are walked in place; other lists are
+	 * decoded through the cache and binary searched.
+	 */
+	public PostingCursor cursor(int termId) throws IOException {
+		if (termId < 0 || lexicon.getPostingOffset(termId) < 0) {
+			return null;
+		}
+		IntList cached = (cache == null) ? null : cache.get(cacheKey(termId));
+		if (cached == null && mappedIndex != null) {
+			ByteBuffer slice = mappedIndex.slice(lexicon.getPostingOffset(termId));
+			if (hasSkips || (hasBitmaps && RoaringIndex.isDense(slice))) {
+				metrics.add("cursor.mapped", 1);
+				return index.openCursor(slice);
+			}
+		}
+		IntList list = (cached != null) ? cached : getPostings(termId);
+		return (list == null) ? null : new ListCursor(termId, list);
+	}
+
+	/**
+	 * Opens a cursor on every document of this segment, what a query of
+	 * nothing but NOTs excludes from.
+	 */
+	public PostingCursor allDocs() {
+		return new AllDocsCursor(lexicon);
+	}
+
+	/**
+	 * Decodes the list of termId into the cache for good, if this segment
+	 * has it.
+	 */
+	public void pin(int termId) throws IOException {
+		PostingList pl = readPosting(termId);
+		if (pl != null) {
+			cache.pin(cacheKey(termId), pl.getList());
+		}
+	}
+
+	private long cacheKey(int termId) {
+		return ((long) ordinal << 32) | termId;
+	}
+
+	/*
+	 * Returns the decoded posting list of termId from the cache, reading
+	 * and caching it on a miss. Returns null if it cannot be read.
+	 * */
+	private IntList getPostings(int termId) throws IOException {
+		if (cache != null) {
+			IntList list = cache.get(cacheKey(termId));
+			if (list != null) {
+				return list;
+			}
+		}
+		PostingList pl = readPosting(termId);
+		if (pl == null) {
+			return null;
+		}
+		if (cache != null) {
+			cache.put(cacheKey(termId), pl.getList());
+		}
+		return pl.getList();
+	}
+
+	/*
+	 * Read the posting list with a given termID from the file.
+	 * When the index is mapped the list is decoded in place from
+	 * the mapped segment; otherwise the shared channel is seeked
+	 * and read under its lock.
+	 * */
+	private PostingList readPosting(int termId) throws IOException {
+		long pos = lexicon.getPostingOffset(termId);
+		if (pos < 0) {
+			return null;
+		}
+
+		long start = System.nanoTime();
+		PostingList pl;
+		long numBytes;
+		if (mappedIndex != null) {
+			ByteBuffer slice = mappedIndex.slice(pos);
+			int sliceStart = slice.position();
+			pl = index.readPosting(slice);
+			numBytes = slice.position() - sliceStart;
+		} else {
+			FileChannel fc = indexFile.getChannel();
+			synchronized (fc) {
+				fc.position(pos);
+				pl = index.readPosting(fc);
+				numBytes = fc.position() - pos;
+			}
+		}
+		metrics.time("read", start);
+		if (pl != null) {
+			metrics.add("read.bytes", numBytes);
+			metrics.add("read.postings", pl.getList().size());
+		}
+		return pl;
+	}
+
+	/*
+	 * Plans and runs an AND over termIds. Terms are deduplicated and
+	 * visited from the lowest document frequency up, so the candidate set
+	 * starts as small as it can and only shrinks; evaluation stops as soon
+	 * as it is empty. Returns null if a posting list cannot be read.
+	 * */
+	private IntList intersectAll(IntList termIds) throws IOException {
+		/* Sort by (df, termId) packed into longs, then drop repeats */
+		long[] plan = new long[termIds.size()];
+		for (int i = 0; i < plan.length; i++) {
+			int termId = termIds.get(i);
+			plan[i] = ((long) lexicon.getDocFreq(termId) << 32) | termId;
+		}
+		Arrays.sort(plan);
+		IntList terms = new IntList(plan.length);
+		for (long entry : plan) {
+			int termId = (int) entry;
+			if (terms.isEmpty() || terms.last() != termId) {
+				terms.add(termId);
+			}
+		}
+
+		/* If even the two rarest terms are dense, AND their bitmaps */
+		IntList finalDocIdList;
+		int next;
+		RoaringBitmap first = (terms.size() > 1) ? bitmap(terms.get(0)) : null;
+		RoaringBitmap second = (first != null) ? bitmap(terms.get(1)) : null;
+		if (second != null) {
+			finalDocIdList = first.and(second);
+			next = 2;
+		} else {
+			finalDocIdList = getPostings(terms.get(0));
+			next = 1;
+		}
+
+		for (int i = next; i < terms.size(); i++) {
+			if (finalDocIdList == null || finalDocIdList.isEmpty()) {
+				break;
+			}
+			finalDocIdList = intersect(finalDocIdList, terms.get(i));
+		}
+		return finalDocIdList;
+	}
+
+	/*
+	 * Returns a view of termId's posting list if it is mapped and stored
+	 * as a bitmap, or null.
+	 * */
+	private RoaringBitmap bitmap(int termId) {
+		if (!hasBitmaps || mappedIndex == null) {
+			return null;
+		}
+		ByteBuffer slice = mappedIndex.slice(lexicon.getPostingOffset(termId));
+		return RoaringIndex.isDense(slice) ? RoaringIndex.openBitmap(slice) : null;
+	}
+
+	/*
+	 * Intersects the candidates with the posting list of termId, choosing
+	 * the strategy by how the list is stored and how much longer it is
+	 * than the candidates. Lists that are walked with a cursor are never
+	 * decoded whole, so they are not cached either.
+	 * */
+	private IntList intersect(IntList candidates, int termId) throws IOException {
+		IntList cached = (cache == null) ? null : cache.get(cacheKey(termId));
+
+		if (cached == null && mappedIndex != null) {
+			ByteBuffer slice = mappedIndex.slice(lexicon.getPostingOffset(termId));
+
+			/* Probe a dense list container by container */
+			if (hasBitmaps && RoaringIndex.isDense(slice)) {
+				metrics.add("intersect.bitmap", 1);
+				return RoaringIndex.openBitmap(slice).and(candidates);
+			}
+
+			/*
+			 * With skip pointers, walk the list only as far as the last
+			 * candidate. Without them a cursor must still decode every
+			 * posting it passes, one at a time, which measures slower
+			 * than decoding the list in bulk and galloping through it.
+			 */
+			if (hasSkips) {
+				metrics.add("intersect.cursor", 1);
+				PostingCursor cursor = index.openCursor(slice);
+				IntList intersect = new IntList(candidates.size());
+				for (int i = 0; i < candidates.size(); i++) {
+					int docId = candidates.get(i);
+					int found = cursor.advance(docId);
+					if (found == docId) {
+						intersect.add(docId);
+					} else if (found == PostingCursor.NO_MORE_DOCS) {
+						break;
+					}
+				}
+				return intersect;
+			}
+		}
+
+		IntList nextDocIdList = cached;
+		if (nextDocIdList == null) {
+			PostingList pl = readPosting(termId);
+			if (pl == null) {
+				return null;
+			}
+			nextDocIdList = pl.getList();
+			if (cache != null) {
+				cache.put(cacheKey(termId), nextDocIdList);
+			}
+		}
+
+		/* Our familiar linear merge, unless the lengths are far apart */
+		if ((long) candidates.size() * GALLOP_RATIO < nextDocIdList.size()) {
+			metrics.add("intersect.gallop", 1);
+			return IntList.gallopIntersect(candidates, nextDocIdList);
+		}
+		metrics.add("intersect.merge", 1);
+		return IntList.intersect(candidates, nextDocIdList);
+	}
+
+	/* Walks the docIds that have a name in the lexicon */
+	private static class AllDocsCursor implements PostingCursor {
+		private final Lexicon lexicon;
+		private int doc = -1;
+
+		AllDocsCursor(Lexicon lexicon) {
+			this.lexicon = lexicon;
+		}
+
+		@Override
+		public int termId() {
+			return -1;
+		}
+
+		@Override
+		public int docId() {
+			return doc;
+		}
+
+		@Override
+		public int next() {
+			return advance(doc + 1);
+		}
+
+		@Override
+		public int advance(int target) {
+			if (doc >= target) {
+				return doc;
+			}
+			for (int docId = Math.max(target, lexicon.getFirstDocId()); docId < lexicon.getDocIdLimit(); docId++) {
+				if (lexicon.hasDoc(docId)) {
+					return doc = docId;
+				}
+			}
+			return doc = NO_MORE_DOCS;
+		}
+
+		@Override
+		public int cost() {
+			return lexicon.getDocIdLimit() - lexicon.getFirstDocId();
+		}
+	}
+}
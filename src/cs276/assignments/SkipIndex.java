@@ -0,0 +1,247 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import cs276.util.IntList;
+
+/**
+ * Adds skip pointers to any BlockCodec. A list of df postings is cut into
+ * blocks of about sqrt(df) docIds, each encoded by the wrapped codec
+ * against the last docId of the block before it, and a table of
+ * (last docId, end offset) per block is stored in front of them:
+ *
+ *   int termId, int docFreq, int numBytes,
+ *   (int lastDocId, int endOffset) per block, encoded blocks
+ *
+ * numBytes counts everything after the header and offsets are relative to
+ * the first block, so an AND can jump over whole blocks through a
+ * PostingCursor and decode only the ones that may hold a match.
+ */
+public class SkipIndex implements BaseIndex {
+
+	/* Lists shorter than this are a single block */
+	private static final int MIN_SKIP_DOC_FREQ = 16;
+
+	private final BlockCodec codec;
+
+	public SkipIndex(BlockCodec codec) {
+		this.codec = codec;
+	}
+
+	/*
+	 * Number of postings per block for a list of docFreq postings
+	 */
+	private static int blockSize(int docFreq) {
+		if (docFreq < MIN_SKIP_DOC_FREQ) {
+			return Math.max(docFreq, 1);
+		}
+		return (int) Math.ceil(Math.sqrt(docFreq));
+	}
+
+	private static int blockCount(int docFreq) {
+		int size = blockSize(docFreq);
+		return (docFreq + size - 1) / size;
+	}
+
+	@Override
+	public PostingList readPosting(ReadableByteChannel fc) {
+		try {
+			ByteBuffer bb = ByteBuffer.allocate(12);
+			int bytesRead = fc.read(bb);
+			if (bytesRead == -1) {
+				System.err.println("Skip: readPosting read fewer than 12 bytes from fc");
+				return null;
+			}
+			int numBytes = bb.getInt(8);
+
+			ByteBuffer docBuf = ByteBuffer.allocate(12 + numBytes);
+			bb.flip();
+			docBuf.put(bb);
+			bytesRead = fc.read(docBuf);
+			if (bytesRead == -1) {
+				System.err.println("Skip: readPosting read fewer than " + numBytes + " bytes from fc");
+				return null;
+			}
+			docBuf.flip();
+			return readPosting(docBuf);
+		} catch (IOException e) {
+			System.err.println("Skip ReadPosting Error: " + e.toString());
+			return null;
+		}
+	}
+
+	@Override
+	public PostingList readPosting(ByteBuffer buf) {
+		int termId = buf.getInt();
+		int docFreq = buf.getInt();
+		int numBytes = buf.getInt();
+		int tableBase = buf.position();
+		int blocks = blockCount(docFreq);
+		int size = blockSize(docFreq);
+		int dataBase = tableBase + 8 * blocks;
+
+		int[] list = new int[docFreq];
+		int[] block = new int[size];
+		int start = 0;
+		int base = 0;
+		for (int b = 0; b < blocks; b++) {
+			int count = Math.min(size, docFreq - b * size);
+			int end = buf.getInt(tableBase + 8 * b + 4);
+			codec.decodeBlock(buf, dataBase + start, end - start, count, base, block);
+			System.arraycopy(block, 0, list, b * size, count);
+			base = buf.getInt(tableBase + 8 * b);
+			start = end;
+		}
+
+		buf.position(tableBase + numBytes);
+		return new PostingList(termId, new IntList(list, docFreq));
+	}
+
+	@Override
+	public void writePosting(WritableByteChannel fc, PostingList p) {
+		try {
+			IntList docList = p.getList();
+			int docFreq = docList.size();
+			int[] docIds = docList.array();
+			int blocks = blockCount(docFreq);
+			int size = blockSize(docFreq);
+
+			byte[][] encoded = new byte[blocks][];
+			int dataBytes = 0;
+			for (int b = 0; b < blocks; b++) {
+				int from = b * size;
+				int to = Math.min(from + size, docFreq);
+				encoded[b] = codec.encodeBlock(docIds, from, to, from == 0 ? 0 : docIds[from - 1]);
+				dataBytes += encoded[b].length;
+			}
+
+			int numBytes = 8 * blocks + dataBytes;
+			ByteBuffer bb = ByteBuffer.allocate(12 + numBytes);
+			bb.putInt(p.getTermId());
+			bb.putInt(docFreq);
+			bb.putInt(numBytes);
+
+			int end = 0;
+			for (int b = 0; b < blocks; b++) {
+				end += encoded[b].length;
+				bb.putInt(docIds[Math.min((b + 1) * size, docFreq) - 1]);
+				bb.putInt(end);
+			}
+			for (byte[] block : encoded) {
+				bb.put(block);
+			}
+
+			bb.flip();
+			while (bb.hasRemaining()) {
+				fc.write(bb);
+			}
+		} catch (IOException e) {
+			System.err.println("Skip WritePosting Error: " + e.toString());
+		}
+	}
+
+	@Override
+	public PostingCursor openCursor(ByteBuffer buf) {
+		int start = buf.position();
+		buf.position(start + 12 + buf.getInt(start + 8));
+		return new SkipCursor(buf, start);
+	}
+
+	private class SkipCursor implements PostingCursor {
+		private final ByteBuffer buf;
+		private final int termId;
+		private final int docFreq;
+		private final int size;
+		private final int blocks;
+		private final int tableBase;
+		private final int dataBase;
+
+		/* Decoded docIds of the current block */
+		private final int[] decoded;
+		private int block = -1;
+		private int blockLength = 0;
+		private int index = 0;
+		private int doc = -1;
+
+		SkipCursor(ByteBuffer buf, int offset) {
+			this.buf = buf;
+			this.termId = buf.getInt(offset);
+			this.docFreq = buf.getInt(offset + 4);
+			this.size = blockSize(docFreq);
+			this.blocks = blockCount(docFreq);
+			this.tableBase = offset + 12;
+			this.dataBase = tableBase + 8 * blocks;
+			this.decoded = new int[size];
+		}
+
+		private int lastDocId(int b) {
+			return buf.getInt(tableBase + 8 * b);
+		}
+
+		private void load(int b) {
+			int start = (b == 0) ? 0 : buf.getInt(tableBase + 8 * (b - 1) + 4);
+			int end = buf.getInt(tableBase + 8 * b + 4);
+			int base = (b == 0) ? 0 : lastDocId(b - 1);
+			blockLength = Math.min(size, docFreq - b * size);
+			codec.decodeBlock(buf, dataBase + start, end - start, blockLength, base, decoded);
+			block = b;
+			index = 0;
+		}
+
+		@Override
+		public int termId() {
+			return termId;
+		}
+
+		@Override
+		public int docId() {
+			return doc;
+		}
+
+		@Override
+		public int next() {
+			if (doc == NO_MORE_DOCS) {
+				return doc;
+			}
+			if (block >= 0 && index + 1 < blockLength) {
+				return doc = decoded[++index];
+			}
+			if (block + 1 >= blocks) {
+				return doc = NO_MORE_DOCS;
+			}
+			load(block + 1);
+			return doc = decoded[0];
+		}
+
+		@Override
+		public int advance(int target) {
+			if (doc >= target) {
+				return doc;
+			}
+
+			/* Skip every block that ends before target */
+			int b = Math.max(block, 0);
+			while (b < blocks && lastDocId(b) < target) {
+				b++;
+			}
+			if (b == blocks) {
+				return doc = NO_MORE_DOCS;
+			}
+			if (b != block) {
+				load(b);
+			}
+			while (decoded[index] < target) {
+				index++;
+			}
+			return doc = decoded[index];
+		}
+
+		@Override
+		public int cost() {
+			return docFreq;
+		}
+	}
+}
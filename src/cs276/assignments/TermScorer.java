@@ -0,0 +1,103 @@
+package cs276.assignments;
+
+import cs276.util.IntList;
+
+/**
+ * A PostingCursor over a decoded posting list and its term frequencies
+ * that also scores the current document by BM25, under the statistics of
+ * the whole index, and knows a bound on any score it can give. advance()
+ * gallops, since WAND mostly jumps a long way down the common lists.
+ */
+public class TermScorer implements PostingCursor {
+	private final int termId;
+	private final IntList docIds;
+	private final IntList tfs;
+	// Lengths of the documents of the segment
+	private final Lexicon lexicon;
+	private final double idf;
+	private final double avgDocLength;
+	private final double maxScore;
+	private int index = -1;
+	private int doc = -1;
+
+	/**
+	 * @param docIds        the posting list of termId
+	 * @param tfs           the frequency of termId in each of docIds
+	 * @param lexicon       lexicon of the segment, for document lengths
+	 * @param idf           idf of termId in the whole index
+	 * @param avgDocLength  average document length of the whole index
+	 * @param maxScore      no score() is above this
+	 */
+	public TermScorer(int termId, IntList docIds, IntList tfs, Lexicon lexicon, double idf,
+			double avgDocLength, double maxScore) {
+		this.termId = termId;
+		this.docIds = docIds;
+		this.tfs = tfs;
+		this.lexicon = lexicon;
+		this.idf = idf;
+		this.avgDocLength = avgDocLength;
+		this.maxScore = maxScore;
+	}
+
+	/**
+	 * Returns the score of the term in the current document.
+	 */
+	public double score() {
+		return Bm25.score(idf, tfs.get(index), lexicon.getDocLength(doc), avgDocLength);
+	}
+
+	public double maxScore() {
+		return maxScore;
+	}
+
+	@Override
+	public int termId() {
+		return termId;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int next() {
+		if (index + 1 >= docIds.size()) {
+			index = docIds.size();
+			return doc = NO_MORE_DOCS;
+		}
+		return doc = docIds.get(++index);
+	}
+
+	@Override
+	public int advance(int target) {
+		if (doc >= target) {
+			return doc;
+		}
+		/* Gallop to a bracket holding target, then binary search it */
+		int lo = index + 1;
+		int step = 1;
+		int hi = lo;
+		while (hi < docIds.size() && docIds.get(hi) < target) {
+			lo = hi + 1;
+			hi += step;
+			step <<= 1;
+		}
+		hi = Math.min(hi, docIds.size());
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (docIds.get(mid) < target) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		index = lo;
+		return doc = (lo < docIds.size()) ? docIds.get(lo) : NO_MORE_DOCS;
+	}
+
+	@Override
+	public int cost() {
+		return docIds.size();
+	}
+}
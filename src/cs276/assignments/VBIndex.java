@@ -1,12 +1,14 @@
 package cs276.assignments;
 
-import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.ByteBuffer;
-import java.util.List;
-import java.util.ArrayList;
 import java.io.IOException;
+import java.util.Arrays;
 
-public class VBIndex implements BaseIndex {
+import cs276.util.IntList;
+
+public class VBIndex implements BaseIndex, BlockCodec {
 
     /*
             Encode gaps between postings in postings-lists. Our implementation
@@ -17,8 +19,7 @@ public class VBIndex implements BaseIndex {
   public int INVALID_VBCODE = -1;
 
     @Override
-    public PostingList readPosting(FileChannel fc) {
-
+    public PostingList readPosting(ReadableByteChannel fc) {
         try {
             /* read termId / doc frequency, and bytes needed to decode */
             ByteBuffer bb = ByteBuffer.allocate(12);
@@ -28,45 +29,40 @@ public class VBIndex implements BaseIndex {
                 System.err.println("VB: readPosting read fewer than 8 bytes from fc");
                 return null;
             }
-            bb.rewind();
+            int numBytes = bb.getInt(8);
 
-            int termId = bb.getInt();
-            int docFreq = bb.getInt();
-            int numBytes = bb.getInt();
-
-            // read postings list into fixed byte array
-            ByteBuffer docBuf = ByteBuffer.allocate(numBytes);
+            // read postings list in behind the header and decode it in place
+            ByteBuffer docBuf = ByteBuffer.allocate(12 + numBytes);
+            bb.flip();
+            docBuf.put(bb);
             bytesRead = fc.read(docBuf);
             if (bytesRead == -1) {
-                System.err.println("VB: readPosting read fewer than 8 bytes from fc");
+                System.err.println("VB: readPosting read fewer than " + numBytes + " bytes from fc");
                 return null;
             }
-            docBuf.rewind();
-            byte[] input = new byte[numBytes];
-            docBuf.get(input);
-
-            // translate postings list
-            int[] list = new int[numBytes];
-
-            // tuple of (decodedGap, index);
-            int[] numberEndIndex = new int[2];
-            int nWritten = 0;
-            int startIndex = 0;
-
-            for (int i = docFreq; i > 0; i--) {
-                decodeInteger(input, startIndex, numberEndIndex);
-                list[nWritten++] = numberEndIndex[0];
-                startIndex = numberEndIndex[1];
-            }
+            docBuf.flip();
+            return readPosting(docBuf);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-            GapDecode(list);
+    @Override
+    public PostingList readPosting(ByteBuffer buf) {
+        try {
+            int termId = buf.getInt();
+            int docFreq = buf.getInt();
+            int numBytes = buf.getInt();
+            int start = buf.position();
 
-            ArrayList<Integer> finalList = new ArrayList<Integer>(numBytes);
-            for (int i = 0; i < numBytes; i++) {
-                finalList.add(list[i]);
-            }
-            return new PostingList(termId, finalList);
+            // translate postings list
+            int[] list = new int[docFreq];
+            decodeBlock(buf, start, numBytes, docFreq, 0, list);
 
+            buf.position(start + numBytes);
+            return new PostingList(termId, new IntList(list, docFreq));
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -75,38 +71,24 @@ public class VBIndex implements BaseIndex {
     }
 
     @Override
-    public void writePosting(FileChannel fc, PostingList p) {
+    public void writePosting(WritableByteChannel fc, PostingList p) {
         try {
             int termId = p.getTermId();
-            List<Integer> docList = p.getList();
-            int[] gapList = new int[docList.size()];
-
-            for (int i = 0; i < docList.size(); i++)
-                gapList[i] = docList.get(i);
-
-            GapEncode(gapList);
-
-            ByteBuffer bb = ByteBuffer.allocate(12);
-            byte[] gapOutput = new byte[4 * gapList.length];
-            int accumBytes = 0;
+            IntList docList = p.getList();
 
             // VBEncode the postinglist
-            for (int gap : gapList) {
-                accumBytes += encodeInteger(gap, gapOutput, accumBytes);
-            }
+            byte[] gapOutput = encodeBlock(docList.array(), 0, docList.size(), 0);
+            int accumBytes = gapOutput.length;
 
-            // Write buffers out
+            // Write header and gaps out in one go
+            ByteBuffer bb = ByteBuffer.allocate(12 + accumBytes);
             bb.putInt(termId);
-            bb.putInt(gapList.length);
+            bb.putInt(docList.size());
             bb.putInt(accumBytes);
+            bb.put(gapOutput, 0, accumBytes);
             bb.flip();
-            fc.write(bb);
-
-            ByteBuffer gapBuf = ByteBuffer.wrap(gapOutput);
-            gapBuf.limit(accumBytes);
-            gapBuf.position(0);
-            while (gapBuf.hasRemaining()) {
-                int numWritten = fc.write(gapBuf);
+            while (bb.hasRemaining()) {
+                fc.write(bb);
             }
         }
         catch (IOException e) {
@@ -114,17 +96,95 @@ public class VBIndex implements BaseIndex {
         }
     }
 
-  private void GapEncode(int[] docIdList) {
-    for (int i = docIdList.length - 1; i > 0; i--) {
-        docIdList[i] -= docIdList[i-1];
+    @Override
+    public byte[] encodeBlock(int[] docIds, int from, int to, int base) {
+        // a 31-bit gap takes at most 5 bytes
+        byte[] gapOutput = new byte[5 * (to - from)];
+        int accumBytes = 0;
+        int prev = base;
+        for (int i = from; i < to; i++) {
+            accumBytes += encodeInteger(docIds[i] - prev, gapOutput, accumBytes);
+            prev = docIds[i];
+        }
+        return Arrays.copyOf(gapOutput, accumBytes);
+    }
+
+    @Override
+    public void decodeBlock(ByteBuffer buf, int offset, int numBytes, int count, int base, int[] out) {
+        // tuple of (decodedGap, index);
+        int[] numberEndIndex = new int[2];
+        int startIndex = offset;
+        int prev = base;
+        for (int i = 0; i < count; i++) {
+            decodeInteger(buf, startIndex, numberEndIndex);
+            prev += numberEndIndex[0];
+            out[i] = prev;
+            startIndex = numberEndIndex[1];
+        }
     }
-  }
 
-  private void GapDecode(int[] gapIdList) {
-    for (int i = 1; i < gapIdList.length; i++) {
-        gapIdList[i] += gapIdList[i-1];
+    @Override
+    public PostingCursor openCursor(ByteBuffer buf) {
+        int start = buf.position();
+        int numBytes = buf.getInt(start + 8);
+        buf.position(start + 12 + numBytes);
+        return new VBCursor(buf, start);
+    }
+
+    /*
+        Decodes one gap per step, so memory stays constant and
+        a cursor that is abandoned early never decodes the rest.
+    */
+    private class VBCursor implements PostingCursor {
+        private final ByteBuffer buf;
+        private final int termId;
+        private final int docFreq;
+        private final int[] numberEndIndex = new int[2];
+        private int pos;
+        private int count = 0;
+        private int doc = -1;
+
+        VBCursor(ByteBuffer buf, int offset) {
+            this.buf = buf;
+            this.termId = buf.getInt(offset);
+            this.docFreq = buf.getInt(offset + 4);
+            this.pos = offset + 12;
+        }
+
+        @Override
+        public int termId() {
+            return termId;
+        }
+
+        @Override
+        public int docId() {
+            return doc;
+        }
+
+        @Override
+        public int next() {
+            if (count >= docFreq) {
+                return doc = NO_MORE_DOCS;
+            }
+            decodeInteger(buf, pos, numberEndIndex);
+            pos = numberEndIndex[1];
+            count++;
+            return doc = Math.max(doc, 0) + numberEndIndex[0];
+        }
+
+        @Override
+        public int advance(int target) {
+            while (doc < target) {
+                next();
+            }
+            return doc;
+        }
+
+        @Override
+        public int cost() {
+            return docFreq;
+        }
     }
-  }
 
     private int encodeInteger(int gap, byte[] outputVBCode, int startIndex) {
         int numBytes = 0;
@@ -151,21 +211,21 @@ public class VBIndex implements BaseIndex {
         return numBytes;
     }
 
-    private void decodeInteger(byte[] inputVBCode, int startIndex, int[] numberEndIndex) {
+    private void decodeInteger(ByteBuffer inputVBCode, int startIndex, int[] numberEndIndex) {
 
     int output = 0;
     int lastIndex = startIndex;
 
     // decode and accumulate powers
-    while ((inputVBCode[lastIndex] & 0x80) == 0 && (lastIndex - startIndex < 4)) {
-      output |= (inputVBCode[lastIndex]);
+    while ((inputVBCode.get(lastIndex) & 0x80) == 0 && (lastIndex - startIndex < 4)) {
+      output |= (inputVBCode.get(lastIndex));
       output <<= 7;
       lastIndex++;
     }
 
     // accumulate 4 lower-order bits
-    if ((inputVBCode[lastIndex] & 0x80) != 0) {
-      output |= 0xFF & (inputVBCode[lastIndex] & ~0x80);
+    if ((inputVBCode.get(lastIndex) & 0x80) != 0) {
+      output |= 0xFF & (inputVBCode.get(lastIndex) & ~0x80);
       lastIndex++;
     } else {
       output = INVALID_VBCODE;
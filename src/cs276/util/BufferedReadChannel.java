@@ -0,0 +1,78 @@
+package cs276.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A read-ahead buffer in front of a FileChannel. Every read is served from
+ * a private buffer that is refilled with one large read from the file, so
+ * many small codec reads turn into a few big sequential ones. The logical
+ * position is tracked here rather than asked of the channel.
+ */
+public class BufferedReadChannel implements ReadableByteChannel {
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final long size;
+	private long position;
+
+	public BufferedReadChannel(FileChannel channel, int bufferSize) throws IOException {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.buffer.flip();
+		this.size = channel.size();
+		this.position = channel.position();
+	}
+
+	/**
+	 * Returns true while unread bytes remain in the underlying file.
+	 */
+	public boolean hasRemaining() {
+		return position < size;
+	}
+
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!hasRemaining()) {
+			return -1;
+		}
+		int total = 0;
+		while (dst.hasRemaining() && hasRemaining()) {
+			if (!buffer.hasRemaining()) {
+				buffer.clear();
+				int n = channel.read(buffer);
+				buffer.flip();
+				if (n <= 0) {
+					break;
+				}
+			}
+			int n = Math.min(dst.remaining(), buffer.remaining());
+			if (n == buffer.remaining()) {
+				dst.put(buffer);
+			} else {
+				int limit = buffer.limit();
+				buffer.limit(buffer.position() + n);
+				dst.put(buffer);
+				buffer.limit(limit);
+			}
+			total += n;
+			position += n;
+		}
+		return total;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
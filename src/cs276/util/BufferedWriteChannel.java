@@ -0,0 +1,144 @@
+package cs276.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A double-buffered, write-behind buffer in front of a FileChannel. Writes
+ * are copied into one of two large buffers; when it fills up it is handed
+ * to a writer thread of its own, which drains it to the file while the
+ * caller fills the other one. Many small codec writes thus turn into a few
+ * big sequential ones that overlap with encoding. The logical position is
+ * tracked here rather than asked of the channel.
+ *
+ * Errors of the writer thread are thrown by the next write or by close,
+ * which must be called to get the last buffer out.
+ */
+public class BufferedWriteChannel implements WritableByteChannel {
+	private final FileChannel channel;
+	private final ExecutorService writer;
+	private ByteBuffer filling;
+	private ByteBuffer draining;
+	private Future<Void> pending;
+	private long position;
+	private boolean open = true;
+
+	public BufferedWriteChannel(FileChannel channel, int bufferSize) throws IOException {
+		this.channel = channel;
+		this.filling = ByteBuffer.allocate(bufferSize);
+		this.draining = ByteBuffer.allocate(bufferSize);
+		this.position = channel.position();
+		this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "index-writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		if (!open) {
+			throw new IOException("Channel closed");
+		}
+		int total = src.remaining();
+		while (src.hasRemaining()) {
+			if (!filling.hasRemaining()) {
+				swap();
+			}
+			int n = Math.min(src.remaining(), filling.remaining());
+			if (n == src.remaining()) {
+				filling.put(src);
+			} else {
+				int limit = src.limit();
+				src.limit(src.position() + n);
+				filling.put(src);
+				src.limit(limit);
+			}
+		}
+		position += total;
+		return total;
+	}
+
+	/*
+	 * Waits for the writer to finish with the other buffer, then hands it
+	 * the one just filled and takes the other back to fill
+	 * */
+	private void swap() throws IOException {
+		awaitPending();
+		filling.flip();
+		final ByteBuffer full = filling;
+		pending = writer.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				while (full.hasRemaining()) {
+					channel.write(full);
+				}
+				return null;
+			}
+		});
+		filling = draining;
+		filling.clear();
+		draining = full;
+	}
+
+	private void awaitPending() throws IOException {
+		if (pending == null) {
+			return;
+		}
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			pending = null;
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Writes out what is still buffered, stops the writer thread and
+	 * closes the underlying channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		try {
+			if (filling.position() > 0) {
+				swap();
+			}
+			awaitPending();
+		} finally {
+			writer.shutdown();
+			channel.close();
+		}
+	}
+}
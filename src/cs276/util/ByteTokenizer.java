@@ -0,0 +1,182 @@
+package cs276.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits a stream of UTF-8 text into whitespace-separated tokens without
+ * decoding it or allocating per token. The input is read in large chunks
+ * and scanned byte by byte; next() copies the following token into a
+ * reused array and hashes it on the way, so callers can look it up by its
+ * bytes and only build a String for a term they have never seen.
+ *
+ * Tokens are what line.trim().split("\\s+") gave for every line read by
+ * BufferedReader, including its one quirk: a line holding no token at all
+ * yields one empty token. Whitespace is the ASCII set of \s (space, \t,
+ * \n, \u000B, \f, \r); other control characters are kept in tokens even at
+ * the ends of lines, where trim() would have dropped them.
+ */
+public class ByteTokenizer {
+
+	// The bytes that end a token: \s, which is also what ends a line
+	private static final boolean[] SEPARATOR = new boolean[' ' + 1];
+	static {
+		SEPARATOR[' '] = true;
+		SEPARATOR['\t'] = true;
+		SEPARATOR['\n'] = true;
+		SEPARATOR[0x0b] = true;
+		SEPARATOR['\f'] = true;
+		SEPARATOR['\r'] = true;
+	}
+
+	private final byte[] chunk;
+	private final ByteBuffer chunkBuffer;
+	private ReadableByteChannel in;
+	private int pos;
+	private int limit;
+
+	// Current token
+	private byte[] term = new byte[64];
+	private int length;
+	private int hash;
+
+	// Tokens seen since the last line break
+	private int lineTokens;
+	// Whether the current line has any byte at all
+	private boolean lineStarted;
+	// Whether the last byte was a \r, whose \n is part of the same break
+	private boolean afterCR;
+
+	public ByteTokenizer(int bufferSize) {
+		this.chunk = new byte[bufferSize];
+		this.chunkBuffer = ByteBuffer.wrap(chunk);
+	}
+
+	/**
+	 * Starts tokenizing in from its current position.
+	 */
+	public void reset(ReadableByteChannel in) {
+		this.in = in;
+		this.pos = 0;
+		this.limit = 0;
+		this.lineTokens = 0;
+		this.lineStarted = false;
+		this.afterCR = false;
+	}
+
+	/**
+	 * Moves to the next token. Returns false at the end of the input.
+	 */
+	public boolean next() throws IOException {
+		length = 0;
+		hash = 0;
+		while (true) {
+			if (pos == limit && !fill()) {
+				/* The last line has no line break */
+				if (length > 0) {
+					return token();
+				}
+				if (lineStarted && lineTokens == 0) {
+					lineStarted = false;
+					return token();
+				}
+				return false;
+			}
+
+			/* Take the run of token bytes up to the next separator at once */
+			int start = pos;
+			int h = hash;
+			while (pos < limit) {
+				int c = chunk[pos];
+				if (c >= 0 && c <= ' ' && SEPARATOR[c]) {
+					break;
+				}
+				h = 31 * h + c;
+				pos++;
+			}
+			if (pos > start) {
+				append(start, pos - start);
+				hash = h;
+				afterCR = false;
+				lineStarted = true;
+				continue;
+			}
+
+			byte b = chunk[pos++];
+			if (b == '\n' || b == '\r') {
+				boolean continuesBreak = afterCR && b == '\n';
+				afterCR = (b == '\r');
+				if (continuesBreak) {
+					continue;
+				}
+				if (length > 0) {
+					/* See this break again, to end the line after the token */
+					pos--;
+					afterCR = false;
+					return token();
+				}
+				boolean empty = (lineTokens == 0);
+				lineTokens = 0;
+				lineStarted = false;
+				if (empty) {
+					/* Counts for the line just ended, not the next one */
+					return true;
+				}
+				continue;
+			}
+
+			afterCR = false;
+			lineStarted = true;
+			if (length > 0) {
+				return token();
+			}
+		}
+	}
+
+	private void append(int from, int count) {
+		if (length + count > term.length) {
+			byte[] grown = new byte[Math.max(2 * term.length, length + count)];
+			System.arraycopy(term, 0, grown, 0, length);
+			term = grown;
+		}
+		System.arraycopy(chunk, from, term, length, count);
+		length += count;
+	}
+
+	private boolean token() {
+		lineTokens++;
+		return true;
+	}
+
+	private boolean fill() throws IOException {
+		chunkBuffer.clear();
+		int n;
+		do {
+			n = in.read(chunkBuffer);
+		} while (n == 0);
+		pos = 0;
+		limit = Math.max(n, 0);
+		return n > 0;
+	}
+
+	/**
+	 * Returns the bytes of the current token, in its first length() bytes.
+	 * The array is reused by the next call to next().
+	 */
+	public byte[] term() {
+		return term;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns the hash of the current token, the same as
+	 * TermDictionary.hash() of its bytes.
+	 */
+	public int hash() {
+		return hash;
+	}
+}
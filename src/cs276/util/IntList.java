@@ -0,0 +1,191 @@
+package cs276.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, backed by an int[] and a length.
+ * Used in place of List&lt;Integer&gt; on the posting paths so that no
+ * docId is ever boxed.
+ */
+public class IntList {
+	private int[] data;
+	private int size;
+
+	public IntList() {
+		this(16);
+	}
+
+	public IntList(int capacity) {
+		this.data = new int[Math.max(capacity, 1)];
+		this.size = 0;
+	}
+
+	/**
+	 * Wraps the first size entries of data without copying.
+	 */
+	public IntList(int[] data, int size) {
+		this.data = data;
+		this.size = size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int get(int i) {
+		return data[i];
+	}
+
+	public void set(int i, int value) {
+		data[i] = value;
+	}
+
+	public int last() {
+		return data[size - 1];
+	}
+
+	public void add(int value) {
+		if (size == data.length) {
+			grow(size + 1);
+		}
+		data[size++] = value;
+	}
+
+	public void addAll(IntList other) {
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.data, 0, data, size, other.size);
+		size += other.size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity > data.length) {
+			grow(capacity);
+		}
+	}
+
+	/**
+	 * Returns the backing array; only the first size() entries are valid.
+	 */
+	public int[] array() {
+		return data;
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(data, size);
+	}
+
+	private void grow(int minCapacity) {
+		int capacity = data.length + (data.length >> 1);
+		if (capacity < minCapacity) {
+			capacity = minCapacity;
+		}
+		data = Arrays.copyOf(data, capacity);
+	}
+
+	/**
+	 * Merges two sorted lists into a sorted list without duplicates.
+	 */
+	public static IntList union(IntList a, IntList b) {
+		IntList out = new IntList(a.size + b.size);
+		int[] r = out.data;
+		int i = 0, j = 0, n = 0;
+		while (i < a.size && j < b.size) {
+			int x = a.data[i];
+			int y = b.data[j];
+			if (x < y) {
+				r[n++] = x;
+				i++;
+			} else if (x > y) {
+				r[n++] = y;
+				j++;
+			} else {
+				r[n++] = x;
+				i++;
+				j++;
+			}
+		}
+		while (i < a.size) {
+			r[n++] = a.data[i++];
+		}
+		while (j < b.size) {
+			r[n++] = b.data[j++];
+		}
+		out.size = n;
+		return out;
+	}
+
+	/**
+	 * Intersects two sorted lists.
+	 */
+	public static IntList intersect(IntList a, IntList b) {
+		IntList out = new IntList(Math.min(a.size, b.size));
+		int[] r = out.data;
+		int i = 0, j = 0, n = 0;
+		while (i < a.size && j < b.size) {
+			int x = a.data[i];
+			int y = b.data[j];
+			if (x == y) {
+				r[n++] = x;
+				i++;
+				j++;
+			} else if (x > y) {
+				j++;
+			} else {
+				i++;
+			}
+		}
+		out.size = n;
+		return out;
+	}
+
+	/**
+	 * Intersects a short sorted list with a much longer one by galloping:
+	 * for each entry of small, an exponential then a binary search from the
+	 * last match in large, so the cost grows with small.size() times the log
+	 * of the gap between matches rather than with large.size().
+	 */
+	public static IntList gallopIntersect(IntList small, IntList large) {
+		IntList out = new IntList(small.size);
+		int[] r = out.data;
+		int[] l = large.data;
+		int n = 0;
+		int lo = 0;
+		for (int i = 0; i < small.size && lo < large.size; i++) {
+			int target = small.data[i];
+
+			/* Gallop until l[hi] >= target, then binary search [lo, hi] */
+			int step = 1;
+			int hi = lo;
+			while (hi < large.size && l[hi] < target) {
+				lo = hi + 1;
+				hi += step;
+				step <<= 1;
+			}
+			if (hi >= large.size) {
+				hi = large.size - 1;
+			}
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (l[mid] < target) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			if (lo < large.size && l[lo] == target) {
+				r[n++] = target;
+				lo++;
+			}
+		}
+		out.size = n;
+		return out;
+	}
+}
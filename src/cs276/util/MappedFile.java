@@ -0,0 +1,79 @@
+package cs276.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read-only memory map of a file made of variable-length records. A single
+ * MappedByteBuffer cannot exceed 2 GB, so larger files are mapped as several
+ * segments. Segment boundaries are placed on record starts, so every record
+ * lies wholly inside one segment and can be decoded from it in place.
+ */
+public class MappedFile {
+	private final long[] segmentStarts;
+	private final MappedByteBuffer[] segments;
+
+	public MappedFile(FileChannel fc, long[] recordStarts) throws IOException {
+		this(fc, recordStarts, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param fc             channel of the file to map
+	 * @param recordStarts   offsets at which records begin, in any order
+	 * @param maxSegment     largest number of bytes mapped as one segment
+	 */
+	public MappedFile(FileChannel fc, long[] recordStarts, long maxSegment) throws IOException {
+		long size = fc.size();
+		long[] starts = Arrays.copyOf(recordStarts, recordStarts.length + 1);
+		starts[recordStarts.length] = size;
+		Arrays.sort(starts);
+
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		long segStart = 0;
+		long prev = 0;
+		for (long start : starts) {
+			if (start - segStart > maxSegment) {
+				bounds.add(prev);
+				segStart = prev;
+			}
+			if (start - segStart > maxSegment) {
+				throw new IOException("Record at " + prev + " does not fit in one segment");
+			}
+			prev = start;
+		}
+
+		segmentStarts = new long[bounds.size()];
+		for (int i = 0; i < segmentStarts.length; i++) {
+			segmentStarts[i] = bounds.get(i);
+		}
+		segments = new MappedByteBuffer[segmentStarts.length];
+		for (int i = 0; i < segments.length; i++) {
+			long end = (i + 1 < segments.length) ? segmentStarts[i + 1] : size;
+			segments[i] = fc.map(FileChannel.MapMode.READ_ONLY, segmentStarts[i], end - segmentStarts[i]);
+		}
+	}
+
+	/**
+	 * Returns a view of the segment holding the record at pos, positioned at
+	 * pos. The view shares the mapped memory; nothing is copied.
+	 */
+	public ByteBuffer slice(long pos) {
+		int i = Arrays.binarySearch(segmentStarts, pos);
+		if (i < 0) {
+			i = -i - 2;
+		}
+		ByteBuffer view = segments[i].duplicate();
+		view.position((int) (pos - segmentStarts[i]));
+		return view;
+	}
+
+	public int segmentCount() {
+		return segments.length;
+	}
+}
@@ -0,0 +1,217 @@
+package cs276.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named phase timers and counters, safe to update from any thread.
+ *
+ * A phase accumulates the nanoseconds and number of calls reported to it
+ * through time(); phases timed with begin() and Timer.end() also record
+ * the peak heap use seen while they ran. Those should not overlap, since
+ * the JVM keeps a single peak per memory pool. Counters count anything
+ * else, such as bytes written or postings decoded. The whole registry is
+ * reported as JSON, with phases and counters sorted by name.
+ */
+public class Metrics implements MetricsMXBean {
+
+	private final ConcurrentSkipListMap<String, String> labels = new ConcurrentSkipListMap<String, String>();
+	private final ConcurrentSkipListMap<String, Phase> phases = new ConcurrentSkipListMap<String, Phase>();
+	private final ConcurrentSkipListMap<String, AtomicLong> counters = new ConcurrentSkipListMap<String, AtomicLong>();
+
+	private static class Phase {
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong peakHeapBytes = new AtomicLong(-1);
+	}
+
+	/**
+	 * A running phase, started by begin()
+	 */
+	public class Timer {
+		private final String phase;
+		private final long start;
+
+		private Timer(String phase) {
+			this.phase = phase;
+			this.start = System.nanoTime();
+		}
+
+		/**
+		 * Records the time and peak heap use since begin().
+		 */
+		public void end() {
+			time(phase, start);
+			AtomicLong peak = phase(phase).peakHeapBytes;
+			long used = peakHeapUsed();
+			long prev;
+			while ((prev = peak.get()) < used && !peak.compareAndSet(prev, used)) {
+			}
+		}
+	}
+
+	/**
+	 * Adds a label to the report, such as the codec in use.
+	 */
+	public void label(String name, String value) {
+		labels.put(name, value);
+	}
+
+	/**
+	 * Starts timing phase and resets the heap peaks.
+	 */
+	public Timer begin(String phase) {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+		return new Timer(phase);
+	}
+
+	/**
+	 * Adds the time since startNanos, a System.nanoTime() value, to phase.
+	 */
+	public void time(String phase, long startNanos) {
+		addNanos(phase, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Adds one call taking nanos to phase.
+	 */
+	public void addNanos(String phase, long nanos) {
+		Phase p = phase(phase);
+		p.nanos.addAndGet(nanos);
+		p.calls.incrementAndGet();
+	}
+
+	/**
+	 * Adds delta to counter.
+	 */
+	public void add(String counter, long delta) {
+		AtomicLong value = counters.get(counter);
+		if (value == null) {
+			counters.putIfAbsent(counter, new AtomicLong());
+			value = counters.get(counter);
+		}
+		value.addAndGet(delta);
+	}
+
+	/**
+	 * Returns the value of counter, 0 if it was never added to.
+	 */
+	public long get(String counter) {
+		AtomicLong value = counters.get(counter);
+		return (value == null) ? 0 : value.get();
+	}
+
+	private Phase phase(String name) {
+		Phase p = phases.get(name);
+		if (p == null) {
+			phases.putIfAbsent(name, new Phase());
+			p = phases.get(name);
+		}
+		return p;
+	}
+
+	private static long peakHeapUsed() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				used += pool.getPeakUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	@Override
+	public Map<String, Long> getPhaseNanos() {
+		Map<String, Long> nanos = new TreeMap<String, Long>();
+		for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+			nanos.put(entry.getKey(), entry.getValue().nanos.get());
+		}
+		return nanos;
+	}
+
+	@Override
+	public Map<String, Long> getCounters() {
+		Map<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().get());
+		}
+		return values;
+	}
+
+	@Override
+	public String getReport() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		for (Map.Entry<String, String> entry : labels.entrySet()) {
+			json.append("  ").append(quote(entry.getKey())).append(": ")
+					.append(quote(entry.getValue())).append(",\n");
+		}
+
+		json.append("  \"phases\": {");
+		String sep = "\n";
+		for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+			Phase p = entry.getValue();
+			json.append(sep).append("    ").append(quote(entry.getKey()))
+					.append(": {\"nanos\": ").append(p.nanos.get())
+					.append(", \"calls\": ").append(p.calls.get());
+			if (p.peakHeapBytes.get() >= 0) {
+				json.append(", \"peakHeapBytes\": ").append(p.peakHeapBytes.get());
+			}
+			json.append("}");
+			sep = ",\n";
+		}
+		json.append(phases.isEmpty() ? "},\n" : "\n  },\n");
+
+		json.append("  \"counters\": {");
+		sep = "\n";
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+			json.append(sep).append("    ").append(quote(entry.getKey()))
+					.append(": ").append(entry.getValue().get());
+			sep = ",\n";
+		}
+		json.append(counters.isEmpty() ? "}\n" : "\n  }\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the report to file as UTF-8 JSON.
+	 */
+	public void writeReport(File file) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(getReport());
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String quote(String s) {
+		StringBuilder out = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		return out.append('"').toString();
+	}
+}
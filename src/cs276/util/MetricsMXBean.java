@@ -0,0 +1,24 @@
+package cs276.util;
+
+import java.util.Map;
+
+/**
+ * JMX view of a Metrics registry.
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Returns the nanoseconds spent in each phase.
+	 */
+	public Map<String, Long> getPhaseNanos();
+
+	/**
+	 * Returns the value of each counter.
+	 */
+	public Map<String, Long> getCounters();
+
+	/**
+	 * Returns the full report as JSON.
+	 */
+	public String getReport();
+}
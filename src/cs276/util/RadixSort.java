@@ -0,0 +1,140 @@
+package cs276.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A stable LSD radix sort of longs by their high 32 bits, for arrays of
+ * packed (key << 32 | value) pairs. Each pass sorts by DIGIT_BITS more
+ * bits of the key, counting digits and then scattering into a second
+ * array of the same size, so a key of k bits costs k / DIGIT_BITS
+ * sequential reads and writes of the data and no comparison at all. Pairs
+ * with equal keys keep their order, so values appended in increasing
+ * order come out increasing within each key.
+ *
+ * Large arrays are cut into parts that count and scatter on a pool; the
+ * digit offsets of the parts are laid out part after part, which keeps
+ * the sort stable.
+ */
+public class RadixSort {
+
+	private static final int DIGIT_BITS = 11;
+	private static final int RADIX = 1 << DIGIT_BITS;
+	// Entries below which a pass is not worth splitting
+	private static final int PARALLEL_THRESHOLD = 1 << 20;
+
+	/**
+	 * Sorts the first size entries of data by their high keyBits bits
+	 * above bit 32, using scratch, which must be as large, as the other
+	 * buffer. Returns whichever of the two holds the result.
+	 *
+	 * @param pool   pool to split passes over, or null to sort serially
+	 * @param parts  number of parts to split large passes into
+	 */
+	public static long[] sortByHigh(long[] data, long[] scratch, int size, int keyBits,
+			ExecutorService pool, int parts) {
+		if (pool == null || size < PARALLEL_THRESHOLD) {
+			parts = 1;
+		}
+		for (int shift = 32; shift < 32 + keyBits; shift += DIGIT_BITS) {
+			int[][] offsets = count(data, size, shift, pool, parts);
+			if (offsets == null) {
+				/* Every entry has the same digit; the pass changes nothing */
+				continue;
+			}
+			scatter(data, scratch, size, shift, offsets, pool);
+			long[] sorted = scratch;
+			scratch = data;
+			data = sorted;
+		}
+		return data;
+	}
+
+	/*
+	 * Counts the digits of each part and turns the counts into the offsets
+	 * each part scatters to. Returns null if one digit takes every entry.
+	 * */
+	private static int[][] count(final long[] data, int size, final int shift,
+			ExecutorService pool, int parts) {
+		final int[][] counts = new int[parts][RADIX];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(parts);
+		for (int part = 0; part < parts; part++) {
+			final int[] partCounts = counts[part];
+			final int from = bound(size, parts, part);
+			final int to = bound(size, parts, part + 1);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = from; i < to; i++) {
+						partCounts[(int) (data[i] >>> shift) & (RADIX - 1)]++;
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks, pool);
+
+		int next = 0;
+		for (int digit = 0; digit < RADIX; digit++) {
+			for (int part = 0; part < parts; part++) {
+				int count = counts[part][digit];
+				if (count == size) {
+					return null;
+				}
+				counts[part][digit] = next;
+				next += count;
+			}
+		}
+		return counts;
+	}
+
+	private static void scatter(final long[] from, final long[] to, int size, final int shift,
+			int[][] offsets, ExecutorService pool) {
+		int parts = offsets.length;
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(parts);
+		for (int part = 0; part < parts; part++) {
+			final int[] partOffsets = offsets[part];
+			final int start = bound(size, parts, part);
+			final int end = bound(size, parts, part + 1);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = start; i < end; i++) {
+						long x = from[i];
+						to[partOffsets[(int) (x >>> shift) & (RADIX - 1)]++] = x;
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks, pool);
+	}
+
+	private static int bound(int size, int parts, int part) {
+		return (int) ((long) size * part / parts);
+	}
+
+	/* Runs a single task on the calling thread, more on the pool */
+	private static void run(List<Callable<Void>> tasks, ExecutorService pool) {
+		try {
+			if (tasks.size() == 1) {
+				tasks.get(0).call();
+				return;
+			}
+			for (Future<Void> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while sorting", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
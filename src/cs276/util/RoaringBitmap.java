@@ -0,0 +1,505 @@
+package cs276.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only Roaring bitmap of docIds, read in place from a ByteBuffer.
+ * DocIds are chunked by their high 16 bits and each chunk is stored in
+ * whichever container is smallest for it: a sorted array of the low 16
+ * bits, a 65536-bit bitmap, or a list of runs. The layout is
+ *
+ *   int containerCount
+ *   (char key, byte type, char cardinality - 1, int offset) per container
+ *   container bodies, at offsets relative to the start of the bitmap:
+ *     ARRAY   cardinality chars
+ *     BITMAP  1024 longs
+ *     RUN     char runCount, then (char start, char length - 1) per run
+ *
+ * Intersections work container by container: two bitmaps are ANDed a word
+ * at a time, anything else probes the smaller container against the other.
+ */
+public class RoaringBitmap {
+
+	public static final int ARRAY = 0;
+	public static final int BITMAP = 1;
+	public static final int RUN = 2;
+
+	// Largest cardinality stored as an array; beyond it a bitmap is smaller
+	private static final int ARRAY_MAX = 4096;
+	private static final int BITMAP_WORDS = 1024;
+	private static final int BITMAP_BYTES = 8 * BITMAP_WORDS;
+	private static final int ENTRY_BYTES = 9;
+
+	private final ByteBuffer buf;
+	private final int base;
+	private final int count;
+
+	/**
+	 * Views the bitmap written at offset in buf. Reads use absolute
+	 * offsets, so buf is never moved and may be shared.
+	 */
+	public RoaringBitmap(ByteBuffer buf, int offset) {
+		this.buf = buf;
+		this.base = offset;
+		this.count = buf.getInt(offset);
+	}
+
+	public int getContainerCount() {
+		return count;
+	}
+
+	public int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < count; i++) {
+			cardinality += cardinality(i);
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Writes every docId, in order, to out and returns how many there are.
+	 */
+	public int toArray(int[] out) {
+		IntList list = new IntList(out, 0);
+		for (int i = 0; i < count; i++) {
+			decode(i, list);
+		}
+		if (list.array() != out) {
+			throw new IllegalArgumentException("Output array too small");
+		}
+		return list.size();
+	}
+
+	public boolean contains(int docId) {
+		int i = find(docId >>> 16);
+		return i >= 0 && contains(i, docId & 0xffff);
+	}
+
+	/**
+	 * Returns the docIds of the sorted list that are also in this bitmap.
+	 */
+	public IntList and(IntList docIds) {
+		IntList out = new IntList(Math.min(docIds.size(), cardinality()));
+		int i = 0;
+		for (int j = 0; j < docIds.size() && i < count; j++) {
+			int docId = docIds.get(j);
+			int key = docId >>> 16;
+			while (i < count && key(i) < key) {
+				i++;
+			}
+			if (i < count && key(i) == key && contains(i, docId & 0xffff)) {
+				out.add(docId);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the docIds in both bitmaps, in order.
+	 */
+	public IntList and(RoaringBitmap other) {
+		IntList out = new IntList();
+		IntList scratch = new IntList();
+		int i = 0;
+		int j = 0;
+		while (i < count && j < other.count) {
+			int key = key(i);
+			int otherKey = other.key(j);
+			if (key < otherKey) {
+				i++;
+			} else if (key > otherKey) {
+				j++;
+			} else {
+				if (type(i) == BITMAP && other.type(j) == BITMAP) {
+					andBitmaps(data(i), other, other.data(j), key << 16, out);
+				} else if (cardinality(i) <= other.cardinality(j)) {
+					probe(this, i, other, j, scratch, out);
+				} else {
+					probe(other, j, this, i, scratch, out);
+				}
+				i++;
+				j++;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Returns a cursor positioned before the first docId.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Walks the docIds in order, one container at a time. next() and
+	 * advance() return -1 once every docId has been passed.
+	 */
+	public class Cursor {
+		private int container = -1;
+		private int high;
+		private int type;
+		private int data;
+		private int cardinality;
+		// ARRAY: index of the last value; BITMAP: current word; RUN: current run
+		private int k;
+		// BITMAP: bits of word k not returned yet
+		private long word;
+		// RUN: next value and end of run k
+		private int runValue;
+		private int runEnd;
+
+		private Cursor() {
+		}
+
+		public int next() {
+			while (container < count) {
+				if (container >= 0) {
+					int low = nextLow();
+					if (low >= 0) {
+						return high | low;
+					}
+				}
+				open(container + 1);
+			}
+			return -1;
+		}
+
+		public int advance(int target) {
+			int key = target >>> 16;
+			if (container < 0 || (container < count && key(container) < key)) {
+				/* First container from here on with a key >= key */
+				int lo = container + 1;
+				int hi = count;
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (key(mid) < key) {
+						lo = mid + 1;
+					} else {
+						hi = mid;
+					}
+				}
+				open(lo);
+			}
+			if (container < count && key(container) == key) {
+				seek(target & 0xffff);
+			}
+			return next();
+		}
+
+		private void open(int c) {
+			container = c;
+			if (c >= count) {
+				return;
+			}
+			high = key(c) << 16;
+			type = type(c);
+			data = data(c);
+			cardinality = cardinality(c);
+			k = -1;
+			word = 0;
+			runValue = 0;
+			runEnd = 0;
+		}
+
+		/* Next low 16 bits in the open container, or -1 */
+		private int nextLow() {
+			switch (type) {
+			case BITMAP:
+				while (word == 0) {
+					if (++k >= BITMAP_WORDS) {
+						return -1;
+					}
+					word = buf.getLong(data + 8 * k);
+				}
+				int low = (k << 6) | Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				return low;
+			case ARRAY:
+				return (++k < cardinality) ? buf.getChar(data + 2 * k) : -1;
+			default:
+				if (runValue >= runEnd) {
+					if (++k >= buf.getChar(data)) {
+						return -1;
+					}
+					runValue = buf.getChar(data + 2 + 4 * k);
+					runEnd = runValue + buf.getChar(data + 4 + 4 * k) + 1;
+				}
+				return runValue++;
+			}
+		}
+
+		/* Skips the open container's values below low */
+		private void seek(int low) {
+			switch (type) {
+			case BITMAP: {
+				int w = low >>> 6;
+				if (w > k) {
+					k = w;
+					word = buf.getLong(data + 8 * w);
+				}
+				if (w == k) {
+					word &= -1L << low;
+				}
+				break;
+			}
+			case ARRAY: {
+				int lo = k + 1;
+				int hi = cardinality;
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (buf.getChar(data + 2 * mid) < low) {
+						lo = mid + 1;
+					} else {
+						hi = mid;
+					}
+				}
+				k = lo - 1;
+				break;
+			}
+			default: {
+				int runs = buf.getChar(data);
+				while (runEnd <= low && k + 1 < runs) {
+					k++;
+					runValue = buf.getChar(data + 2 + 4 * k);
+					runEnd = runValue + buf.getChar(data + 4 + 4 * k) + 1;
+				}
+				if (runEnd <= low) {
+					runValue = runEnd;
+				} else if (runValue < low) {
+					runValue = low;
+				}
+				break;
+			}
+			}
+		}
+	}
+
+	private void andBitmaps(int data, RoaringBitmap other, int otherData, int high, IntList out) {
+		for (int w = 0; w < BITMAP_WORDS; w++) {
+			long word = buf.getLong(data + 8 * w) & other.buf.getLong(otherData + 8 * w);
+			while (word != 0) {
+				out.add(high | (w << 6) | Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+	}
+
+	/* Looks up every value of a's container i in b's container j */
+	private static void probe(RoaringBitmap a, int i, RoaringBitmap b, int j,
+			IntList scratch, IntList out) {
+		scratch.clear();
+		a.decode(i, scratch);
+		for (int k = 0; k < scratch.size(); k++) {
+			int docId = scratch.get(k);
+			if (b.contains(j, docId & 0xffff)) {
+				out.add(docId);
+			}
+		}
+	}
+
+	private int entry(int i) {
+		return base + 4 + ENTRY_BYTES * i;
+	}
+
+	private int key(int i) {
+		return buf.getChar(entry(i));
+	}
+
+	private int type(int i) {
+		return buf.get(entry(i) + 2);
+	}
+
+	private int cardinality(int i) {
+		return buf.getChar(entry(i) + 3) + 1;
+	}
+
+	private int data(int i) {
+		return base + buf.getInt(entry(i) + 5);
+	}
+
+	/* Index of the container holding key, or -1 */
+	private int find(int key) {
+		int lo = 0;
+		int hi = count - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int k = key(mid);
+			if (k < key) {
+				lo = mid + 1;
+			} else if (k > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private boolean contains(int i, int low) {
+		int data = data(i);
+		switch (type(i)) {
+		case BITMAP:
+			return ((buf.getLong(data + 8 * (low >>> 6)) >>> low) & 1) != 0;
+		case ARRAY: {
+			int lo = 0;
+			int hi = cardinality(i) - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int value = buf.getChar(data + 2 * mid);
+				if (value < low) {
+					lo = mid + 1;
+				} else if (value > low) {
+					hi = mid - 1;
+				} else {
+					return true;
+				}
+			}
+			return false;
+		}
+		default: {
+			/* Last run starting at or before low */
+			int lo = 0;
+			int hi = buf.getChar(data) - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (buf.getChar(data + 2 + 4 * mid) <= low) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			int start = buf.getChar(data + 2 + 4 * lo);
+			int length = buf.getChar(data + 4 + 4 * lo) + 1;
+			return low >= start && low < start + length;
+		}
+		}
+	}
+
+	/* Appends the docIds of container i to out */
+	private void decode(int i, IntList out) {
+		int high = key(i) << 16;
+		int data = data(i);
+		switch (type(i)) {
+		case BITMAP:
+			for (int w = 0; w < BITMAP_WORDS; w++) {
+				long word = buf.getLong(data + 8 * w);
+				while (word != 0) {
+					out.add(high | (w << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			break;
+		case ARRAY:
+			for (int k = 0, n = cardinality(i); k < n; k++) {
+				out.add(high | buf.getChar(data + 2 * k));
+			}
+			break;
+		default:
+			for (int r = 0, runs = buf.getChar(data); r < runs; r++) {
+				int start = high | buf.getChar(data + 2 + 4 * r);
+				int length = buf.getChar(data + 4 + 4 * r) + 1;
+				for (int k = 0; k < length; k++) {
+					out.add(start + k);
+				}
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Encodes the strictly increasing, non-negative docIds[from, to).
+	 */
+	public static byte[] encode(int[] docIds, int from, int to) {
+		/* Size every chunk's cheapest container first, to lay out offsets */
+		IntList starts = new IntList();
+		IntList types = new IntList();
+		IntList sizes = new IntList();
+		int dataBytes = 0;
+		for (int start = from; start < to; ) {
+			int key = docIds[start] >>> 16;
+			int end = start + 1;
+			int runs = 1;
+			while (end < to && (docIds[end] >>> 16) == key) {
+				if (docIds[end] != docIds[end - 1] + 1) {
+					runs++;
+				}
+				end++;
+			}
+			int cardinality = end - start;
+			int runBytes = 2 + 4 * runs;
+			int type;
+			int size;
+			if (cardinality <= ARRAY_MAX && 2 * cardinality <= runBytes) {
+				type = ARRAY;
+				size = 2 * cardinality;
+			} else if (cardinality > ARRAY_MAX && BITMAP_BYTES <= runBytes) {
+				type = BITMAP;
+				size = BITMAP_BYTES;
+			} else {
+				type = RUN;
+				size = runBytes;
+			}
+			starts.add(start);
+			types.add(type);
+			sizes.add(size);
+			dataBytes += size;
+			start = end;
+		}
+		int containers = starts.size();
+		starts.add(to);
+
+		int headerBytes = 4 + ENTRY_BYTES * containers;
+		ByteBuffer out = ByteBuffer.allocate(headerBytes + dataBytes);
+		out.putInt(containers);
+		int offset = headerBytes;
+		for (int c = 0; c < containers; c++) {
+			out.putChar((char) (docIds[starts.get(c)] >>> 16));
+			out.put((byte) types.get(c));
+			out.putChar((char) (starts.get(c + 1) - starts.get(c) - 1));
+			out.putInt(offset);
+			offset += sizes.get(c);
+		}
+
+		for (int c = 0; c < containers; c++) {
+			int start = starts.get(c);
+			int end = starts.get(c + 1);
+			switch (types.get(c)) {
+			case ARRAY:
+				for (int k = start; k < end; k++) {
+					out.putChar((char) docIds[k]);
+				}
+				break;
+			case BITMAP: {
+				long[] words = new long[BITMAP_WORDS];
+				for (int k = start; k < end; k++) {
+					int low = docIds[k] & 0xffff;
+					words[low >>> 6] |= 1L << low;
+				}
+				for (long word : words) {
+					out.putLong(word);
+				}
+				break;
+			}
+			default: {
+				int runCountPos = out.position();
+				out.putChar((char) 0);
+				int runs = 0;
+				for (int k = start; k < end; ) {
+					int runEnd = k + 1;
+					while (runEnd < end && docIds[runEnd] == docIds[runEnd - 1] + 1) {
+						runEnd++;
+					}
+					out.putChar((char) docIds[k]);
+					out.putChar((char) (runEnd - k - 1));
+					runs++;
+					k = runEnd;
+				}
+				out.putChar(runCountPos, (char) runs);
+				break;
+			}
+			}
+		}
+		return out.array();
+	}
+}
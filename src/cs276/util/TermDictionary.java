@@ -0,0 +1,322 @@
+package cs276.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A map from terms, given as their UTF-8 bytes, to int values, built for
+ * vocabularies of millions of terms. The bytes of every term are appended
+ * to one arena and the values kept in an int[], both indexed by entry
+ * number in insertion order. Lookups hash the bytes into an open-addressing
+ * table of (hash, entry + 1) pairs, probed linearly and kept at most half
+ * full, so they take constant time and one cache miss or two; no String,
+ * boxed Integer or tree node is held per term.
+ *
+ * Strings passed in are encoded as UTF-8, so one String is always one key.
+ */
+public class TermDictionary {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// Bytes of the terms compared per pass of sort()
+	private static final int ORDER_BYTES = 3;
+	// Depth from which sort() compares ties whole
+	private static final int MAX_RADIX_DEPTH = 48;
+
+	private int[] slots;
+	private int shift;
+	private int size;
+	// Entry -> start of its bytes in the arena; entry i ends where i + 1
+	// starts
+	private int[] starts;
+	private int[] values;
+	private byte[] arena;
+
+	public TermDictionary() {
+		this(1 << 10);
+	}
+
+	/**
+	 * @param expectedTerms  number of terms to size the dictionary for
+	 */
+	public TermDictionary(int expectedTerms) {
+		int bits = 4;
+		while ((1 << bits) < 2 * expectedTerms) {
+			bits++;
+		}
+		slots = new int[2 << bits];
+		shift = 32 - bits;
+		starts = new int[expectedTerms + 1];
+		values = new int[expectedTerms];
+		arena = new byte[8 * expectedTerms];
+	}
+
+	/**
+	 * Hashes len bytes of term from off, as the dictionary does.
+	 */
+	public static int hash(byte[] term, int off, int len) {
+		int h = 0;
+		for (int i = off; i < off + len; i++) {
+			h = 31 * h + term[i];
+		}
+		return h;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the heap held by the table, the arena and the entry arrays.
+	 */
+	public long estimatedBytes() {
+		return 4L * (slots.length + starts.length + values.length) + arena.length;
+	}
+
+	/**
+	 * Returns the value of term, or -1 if it is not in the dictionary.
+	 */
+	public int get(String term) {
+		byte[] bytes = term.getBytes(UTF8);
+		return get(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+	}
+
+	/**
+	 * Returns the value of the len bytes of term from off, whose hash is
+	 * hash, or -1 if they are not in the dictionary.
+	 */
+	public int get(byte[] term, int off, int len, int hash) {
+		int slot = find(term, off, len, hash);
+		return (slots[slot + 1] == 0) ? -1 : values[slots[slot + 1] - 1];
+	}
+
+	/**
+	 * Returns the value of term, adding it with value first if it is new.
+	 */
+	public int add(String term, int value) {
+		byte[] bytes = term.getBytes(UTF8);
+		return add(bytes, 0, bytes.length, hash(bytes, 0, bytes.length), value);
+	}
+
+	/**
+	 * Returns the value of the len bytes of term from off, whose hash is
+	 * hash, adding them with value first if they are new.
+	 */
+	public int add(byte[] term, int off, int len, int hash, int value) {
+		int slot = find(term, off, len, hash);
+		if (slots[slot + 1] != 0) {
+			return values[slots[slot + 1] - 1];
+		}
+
+		if (size + 1 >= starts.length) {
+			starts = Arrays.copyOf(starts, 2 * starts.length);
+			values = Arrays.copyOf(values, 2 * values.length + 1);
+		}
+		int end = starts[size];
+		if (end + len > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(2 * arena.length, end + len));
+		}
+		System.arraycopy(term, off, arena, end, len);
+		starts[size + 1] = end + len;
+		values[size] = value;
+		size++;
+
+		slots[slot] = hash;
+		slots[slot + 1] = size;
+		if (4 * size > slots.length) {
+			rehash();
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the value of entry of from, adding its term with value
+	 * first if it is new here.
+	 */
+	public int add(TermDictionary from, int entry, int value) {
+		int start = from.starts[entry];
+		int len = from.starts[entry + 1] - start;
+		return add(from.arena, start, len, hash(from.arena, start, len), value);
+	}
+
+	/**
+	 * Returns the value of the entry-th term added.
+	 */
+	public int value(int entry) {
+		return values[entry];
+	}
+
+	/**
+	 * Returns the entry-th term added.
+	 */
+	public String term(int entry) {
+		return new String(arena, starts[entry], starts[entry + 1] - starts[entry], UTF8);
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of the entry-th term added.
+	 */
+	public byte[] termBytes(int entry) {
+		return Arrays.copyOfRange(arena, starts[entry], starts[entry + 1]);
+	}
+
+	/**
+	 * Returns the entries in the order of their terms as Strings, the
+	 * order of a TreeMap<String, Integer>.
+	 */
+	public int[] sortedEntries() {
+		return sort(true);
+	}
+
+	/**
+	 * Returns the entries in the unsigned order of their UTF-8 bytes.
+	 */
+	public int[] sortedEntriesByBytes() {
+		return sort(false);
+	}
+
+	/* Sorts every entry, one ORDER_BYTES slice of their terms at a time */
+	private int[] sort(boolean stringOrder) {
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		sort(order, new long[size], 0, size, 0, stringOrder);
+		return order;
+	}
+
+	/*
+	 * Sorts order[from, to), whose terms share their first depth bytes.
+	 * The next ORDER_BYTES bytes of each term, as 9-bit symbols with 0 for
+	 * past the end, are packed into a long above the entry number and the
+	 * longs sorted as primitives; each run sharing those bytes is then
+	 * sorted the same way from further on, so the arena is read a slice
+	 * at a time and no comparator runs, however long the common prefixes.
+	 * Runs still tied deep into their terms are compared whole.
+	 * */
+	private void sort(int[] order, long[] keys, int from, int to, int depth,
+			final boolean stringOrder) {
+		if (depth >= MAX_RADIX_DEPTH) {
+			Integer[] run = new Integer[to - from];
+			for (int i = 0; i < run.length; i++) {
+				run[i] = order[from + i];
+			}
+			Arrays.sort(run, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return compareEntries(a, b, stringOrder);
+				}
+			});
+			for (int i = 0; i < run.length; i++) {
+				order[from + i] = run[i];
+			}
+			return;
+		}
+
+		for (int i = from; i < to; i++) {
+			int entry = order[i];
+			long key = 0;
+			for (int k = 0; k < ORDER_BYTES; k++) {
+				int at = starts[entry] + depth + k;
+				int symbol = (at < starts[entry + 1]) ? rank(arena[at], stringOrder) + 1 : 0;
+				key = (key << 9) | symbol;
+			}
+			keys[i] = (key << 32) | entry;
+		}
+		Arrays.sort(keys, from, to);
+		for (int i = from; i < to; i++) {
+			order[i] = (int) keys[i];
+		}
+
+		for (int start = from; start < to; ) {
+			long key = keys[start] >>> 32;
+			int end = start + 1;
+			while (end < to && (keys[end] >>> 32) == key) {
+				end++;
+			}
+			/* Terms that ended in this slice are distinct, so alone */
+			if (end - start > 1 && (key & 0x1ff) != 0) {
+				sort(order, keys, start, end, depth + ORDER_BYTES, stringOrder);
+			}
+			start = end;
+		}
+	}
+
+	/*
+	 * Ranks a byte for sorting. UTF-8 bytes sort by code point, which is
+	 * the String order of UTF-16 code units except that supplementary
+	 * characters, stored as surrogates, come before U+E000..U+FFFF. Their
+	 * lead bytes are 0xF0..0xF4 against 0xEE..0xEF, values no other byte
+	 * of UTF-8 takes, so String order just swaps those two ranges.
+	 * */
+	private static int rank(byte b, boolean stringOrder) {
+		int x = b & 0xff;
+		if (stringOrder && x >= 0xee) {
+			return (x >= 0xf0) ? x - 2 : x + 5;
+		}
+		return x;
+	}
+
+	private int compareEntries(int a, int b, boolean stringOrder) {
+		int aStart = starts[a];
+		int bStart = starts[b];
+		int aLen = starts[a + 1] - aStart;
+		int bLen = starts[b + 1] - bStart;
+		int n = Math.min(aLen, bLen);
+		for (int i = 0; i < n; i++) {
+			int x = rank(arena[aStart + i], stringOrder);
+			int y = rank(arena[bStart + i], stringOrder);
+			if (x != y) {
+				return x - y;
+			}
+		}
+		return aLen - bLen;
+	}
+
+	/*
+	 * Returns the slot of the term, or of the empty slot where it would
+	 * go
+	 * */
+	private int find(byte[] term, int off, int len, int hash) {
+		int mask = slots.length - 1;
+		int slot = ((hash * 0x9e3779b9) >>> shift) << 1;
+		for (; slots[slot + 1] != 0; slot = (slot + 2) & mask) {
+			if (slots[slot] == hash && sameBytes(slots[slot + 1] - 1, term, off, len)) {
+				break;
+			}
+		}
+		return slot;
+	}
+
+	private boolean sameBytes(int entry, byte[] term, int off, int len) {
+		int start = starts[entry];
+		if (starts[entry + 1] - start != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (arena[start + i] != term[off + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Doubles the table, reinserting every term by its stored hash */
+	private void rehash() {
+		int[] old = slots;
+		slots = new int[2 * old.length];
+		shift--;
+		int mask = slots.length - 1;
+		for (int i = 0; i < old.length; i += 2) {
+			if (old[i + 1] == 0) {
+				continue;
+			}
+			int slot = ((old[i] * 0x9e3779b9) >>> shift) << 1;
+			while (slots[slot + 1] != 0) {
+				slot = (slot + 2) & mask;
+			}
+			slots[slot] = old[i];
+			slots[slot + 1] = old[i + 1];
+		}
+	}
+}
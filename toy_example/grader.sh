@@ -3,6 +3,9 @@ fmt="user = %U, system = %S, elapsed = %e, memory = %M, memory = %K"
 ref=ref
 queryin=queries
 queryref=$ref/query_ref
+rankedin=$queryin/ranked
+rankedref=$ref/ranked_ref
+topk=2
 file_count_ref=$ref/filecount.ref
 corpus=data
 
@@ -12,6 +15,7 @@ if [ ! -d "$out" ]; then
 fi
 index=$out/index
 queryout=$out/query_out
+rankedout=$out/ranked_out
 querytime=$out/querytime.txt
 indextime=$out/indextime.txt
 index_memout=$out/index_memory_out
@@ -20,6 +24,9 @@ file_count=$out/filecount.txt
 if [ ! -d "$queryout" ]; then
   mkdir -p $queryout
 fi
+if [ ! -d "$rankedout" ]; then
+  mkdir -p $rankedout
+fi
 
 chmod +x index.sh
 chmod +x query.sh
@@ -27,7 +34,9 @@ chmod +x query.sh
 echo "" >&2
 echo "###### Testing Indexing ######" >&2
 START=$(date +%s)
-./memusg -o $index_memout ./index.sh $corpus $index > $file_count
+# Positions and scores are kept for the phrase and ranked queries
+./memusg -o $index_memout ./index.sh $corpus $index -Dindex.positions=true \
+  -Dindex.scores=true > $file_count
 END=$(date +%s)
 DIFF=$(( $END - $START ))
 echo "$DIFF seconds" > $indextime
@@ -46,7 +55,7 @@ echo "###### Testing Retrieval ######" >&2
 START=$(date +%s)
 query_error=0
 echo  > $querytime
-for i in {1..5}
+for i in {1..10}
 do
 ./memusg -o $query_memout ./query.sh $index < $queryin/query.${i} > $queryout/${i}
 END=$(date +%s)
@@ -65,3 +74,55 @@ else
   echo "all queries passed"
 fi
 echo "######"
+
+echo "" >&2
+echo "###### Testing Ranked Retrieval ######" >&2
+ranked_error=0
+for i in {1..3}
+do
+./query.sh $index -Dquery.topk=$topk < $rankedin/${i} > $rankedout/${i}
+
+ranked_diff=`diff -U 0 $rankedout/${i} $rankedref/${i} | grep -v ^@ | wc -l`
+if [ $ranked_diff -gt 0 ]; then
+  ranked_error=`expr $ranked_error + 1`
+fi
+done
+echo "######"
+if [ $ranked_error -gt 0 ]; then
+  echo "$ranked_error ranked queries were wrong" >&2
+else
+  echo "all ranked queries passed"
+fi
+echo "######"
+
+echo "" >&2
+echo "###### Testing Run Budget ######" >&2
+# A corpus that fills several runs of the smallest budget; with the budget
+# fixed, more workers must not cut it into more runs
+runs_corpus=$out/runs_data
+rm -rf $runs_corpus
+for b in 0 1 2 3; do
+  mkdir -p $runs_corpus/$b
+  awk -v seed=$b -v dir=$runs_corpus/$b 'BEGIN {
+    srand(seed)
+    for (d = 0; d < 100; d++) {
+      f = sprintf("%s/doc%03d.txt", dir, d)
+      for (t = 0; t < 1000; t++) printf "w%d ", int(rand() * rand() * 5000) > f
+      close(f)
+    }
+  }'
+done
+for w in 1 4; do
+  rm -rf $out/runs_index
+  ./index.sh $runs_corpus $out/runs_index -Dindex.memory=1 -Dindex.workers=$w \
+    -Dindex.report=$out/runs.$w.json > /dev/null
+  eval runs_$w=`grep -o '"runs": *[0-9]*' $out/runs.$w.json | grep -o '[0-9]*$'`
+done
+rm -rf $runs_corpus $out/runs_index
+echo "######"
+if [ -z "$runs_1" ] || [ -z "$runs_4" ] || [ $runs_1 -lt 2 ] || [ $runs_4 -gt `expr $runs_1 + 1` ]; then
+  echo "run counts under one budget differ: $runs_1 with 1 worker, $runs_4 with 4" >&2
+else
+  echo "run budget test passed ($runs_1 and $runs_4 runs)" >&2
+fi
+echo "######"
@@ -1,2 +1,2 @@
 SCRIPTPATH=$( cd $(dirname $0) ; pwd -P )
-java -Xmx400M -cp $SCRIPTPATH/../classes cs276.assignments.Index Gamma $1 $2
+java -Xmx400M "${@:3}" -cp $SCRIPTPATH/../classes cs276.assignments.Index Gamma $1 $2
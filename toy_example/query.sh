@@ -1,2 +1,2 @@
 SCRIPTPATH=$( cd $(dirname $0) ; pwd -P )
-java -Xmx200M -cp $SCRIPTPATH/../classes cs276.assignments.Query Gamma $1
+java -Xmx200M "${@:2}" -cp $SCRIPTPATH/../classes cs276.assignments.Query Gamma $1